@@ -0,0 +1,72 @@
+package com.yourproject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes JMH's JSON results to
+ * jmh-results/&lt;commit&gt;.json so runs can be compared across commits.
+ *
+ * Usage: BenchmarkRunner [include-regex]   (default: all benchmarks)
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String include = args.length > 0 ? args[0] : "com\\.yourproject\\..*Benchmark.*";
+
+        Path dir = Paths.get("jmh-results");
+        Files.createDirectories(dir);
+        Path resultFile = dir.resolve(currentCommit() + ".json");
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultFile.toString())
+                .build();
+        new Runner(options).run();
+
+        System.out.println("Benchmark results written to " + resultFile.toAbsolutePath());
+    }
+
+    // Short hash of HEAD, with "-dirty" for uncommitted changes; a timestamp outside git.
+    private static String currentCommit() {
+        try {
+            String hash = runGit("rev-parse", "--short", "HEAD");
+            if (hash == null || hash.isEmpty()) return "local-" + System.currentTimeMillis();
+            String status = runGit("status", "--porcelain", "--untracked-files=no");
+            return status == null || status.isEmpty() ? hash : hash + "-dirty";
+        } catch (IOException e) {
+            return "local-" + System.currentTimeMillis();
+        }
+    }
+
+    private static String runGit(String... args) throws IOException {
+        String[] command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy(args, 0, command, 1, args.length);
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        StringBuilder out = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                out.append(line).append('\n');
+            }
+        }
+        try {
+            if (process.waitFor() != 0) return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return out.toString().trim();
+    }
+}
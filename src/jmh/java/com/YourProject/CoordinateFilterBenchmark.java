@@ -0,0 +1,83 @@
+package com.yourproject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Haversine and DBSCAN selection over synthetic hit sets.
+ *
+ * Every 17 points belong to one site (one WAN MAC's offset sweep): ~60% fall
+ * within a few hundred metres of the site, the rest is noise spread over a few
+ * hundred km, like what WiGLE returns for neighbouring BSSIDs. Larger sets
+ * are many sites in the same region, as when re-clustering in bulk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoordinateFilterBenchmark {
+
+    // 17 = one full offset sweep; the rest are bulk re-clustering sizes.
+    @Param({"17", "100", "1000", "10000"})
+    public int points;
+
+    private List<LocationFinder.LocationHit> hits;
+    private double lat1, lon1, lat2, lon2;
+
+    @Setup
+    public void setup() {
+        hits = syntheticHits(points, new Random(42));
+        lat1 = 48.8566; lon1 = 2.3522;
+        lat2 = 48.8606; lon2 = 2.3376;
+    }
+
+    @Benchmark
+    public double haversineDistance() {
+        return CoordinateFilter.haversineDistance(lat1, lon1, lat2, lon2);
+    }
+
+    @Benchmark
+    public LocationFinder.LocationHit clusterAndSelect() {
+        return CoordinateFilter.clusterAndSelect(hits, 1.0, 2);
+    }
+
+    static List<LocationFinder.LocationHit> syntheticHits(int n, Random random) {
+        double regionLat = 40 + random.nextDouble() * 10;
+        double regionLon = -5 + random.nextDouble() * 20;
+        List<LocationFinder.LocationHit> out = new ArrayList<>(n);
+        double centerLat = regionLat;
+        double centerLon = regionLon;
+        for (int i = 0; i < n; i++) {
+            if (i % MacUtils.OFFSET_COUNT == 0) {
+                centerLat = regionLat + (random.nextDouble() - 0.5) * 4;
+                centerLon = regionLon + (random.nextDouble() - 0.5) * 6;
+            }
+            int offset = random.nextInt(MacUtils.OFFSET_COUNT) + MacUtils.MIN_OFFSET;
+            if (random.nextDouble() < 0.6) {
+                out.add(new LocationFinder.LocationHit(
+                        centerLat + random.nextGaussian() * 0.002,
+                        centerLon + random.nextGaussian() * 0.003, offset));
+            } else {
+                out.add(new LocationFinder.LocationHit(
+                        regionLat + (random.nextDouble() - 0.5) * 4,
+                        regionLon + (random.nextDouble() - 0.5) * 6, offset));
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,54 @@
+package com.yourproject;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Project2's string-based IPv6Parser.extractMAC next to the Ipv6Bytes/MacUtils path.
+ *
+ * IPv6Parser lives in the default package, which named packages can't import,
+ * so it is looked up by name. Only src/main/Project2/IPv6Parser.java needs to be
+ * on the benchmark classpath (the rest of Project2 needs JavaFX).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IPv6ParserBenchmark {
+
+    private static final String ADDRESS = "2001:db8:85a3:1:1234:56ff:fe78:9abc";
+
+    private MethodHandle extractMac;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        Class<?> parser = Class.forName("IPv6Parser");
+        extractMac = MethodHandles.publicLookup().findStatic(parser, "extractMAC",
+                MethodType.methodType(String.class, String.class));
+    }
+
+    @Benchmark
+    public String project2ExtractMac() throws Throwable {
+        return (String) extractMac.invokeExact(ADDRESS);
+    }
+
+    @Benchmark
+    public String primitiveExtractMac() {
+        byte[] address = Ipv6Bytes.parse(ADDRESS);
+        return MacUtils.longToMacString(MacUtils.macFromIid(Ipv6Bytes.interfaceId(address)));
+    }
+}
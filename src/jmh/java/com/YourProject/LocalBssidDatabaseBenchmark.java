@@ -0,0 +1,86 @@
+package com.yourproject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Random hit and miss lookups in a LocalBssidDatabase converted from a
+ * synthetic CSV dump.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalBssidDatabaseBenchmark {
+
+    @Param({"1000000"})
+    public int records;
+
+    private Path dir;
+    private LocalBssidDatabase database;
+    private long[] present;
+    private long[] absent;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("bssid-bench");
+        Path csv = dir.resolve("dump.csv");
+        Random random = new Random(7);
+        present = new long[records];
+        try (BufferedWriter out = Files.newBufferedWriter(csv)) {
+            for (int i = 0; i < records; i++) {
+                present[i] = random.nextLong() & MacUtils.MAC_MASK;
+                out.write(MacUtils.longToMacString(present[i]) + ","
+                        + (random.nextDouble() * 170 - 85) + "," + (random.nextDouble() * 360 - 180) + "\n");
+            }
+        }
+        new BssidCsvConverter().convert(csv, dir.resolve("bssids.bin"));
+        database = new LocalBssidDatabase(dir.resolve("bssids.bin"));
+
+        absent = new long[1 << 16];
+        for (int i = 0; i < absent.length; i++) {
+            absent[i] = random.nextLong() & MacUtils.MAC_MASK; // a collision is ~1 in 280M
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        database.close();
+        try (var files = Files.list(dir)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                Files.delete(f);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public long lookupHit() {
+        return database.lookup(present[(next++ & Integer.MAX_VALUE) % present.length]);
+    }
+
+    @Benchmark
+    public long lookupMiss() {
+        return database.lookup(absent[next++ & (absent.length - 1)]);
+    }
+}
@@ -0,0 +1,110 @@
+package com.yourproject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * EUI-64 detection, MAC extraction and BSSID candidate generation.
+ * Also compares the old String/HashMap candidate path with the primitive one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MacUtilsBenchmark {
+
+    private byte[] address;
+    private byte[] iid;
+    private long iidLong;
+    private final long[] bssids = new long[MacUtils.OFFSET_COUNT];
+    private final char[] buf = new char[12];
+
+    @Setup
+    public void setup() {
+        iid = new byte[] {0x12, 0x34, 0x56, (byte) 0xFF, (byte) 0xFE, 0x78, (byte) 0x9A, (byte) 0xBC};
+        iidLong = MacUtils.bytesToLong(iid);
+        address = new byte[MacUtils.IPV6_BYTE_LENGTH];
+        address[0] = 0x20;
+        address[1] = 0x01;
+        System.arraycopy(iid, 0, address, 8, iid.length);
+    }
+
+    @Benchmark
+    public boolean isEui64Address() {
+        return MacUtils.isEui64Address(address);
+    }
+
+    @Benchmark
+    public byte[] extractMacFromIid() {
+        return MacUtils.extractMacFromIid(iid);
+    }
+
+    @Benchmark
+    public long macFromIid() {
+        return MacUtils.macFromIid(iidLong);
+    }
+
+    /** The code path before the primitive API: byte[] MAC, HashMap, String.format per byte. */
+    @Benchmark
+    public Map<Integer, String> legacyCandidates() {
+        byte[] mac = MacUtils.extractMacFromIid(iid);
+        Map<Integer, String> out = new HashMap<>();
+        long wanMacLong = MacUtils.bytesToLong(mac);
+        for (int offset = -8; offset <= 8; offset++) {
+            out.put(offset, legacyLongToMacString(wanMacLong + offset));
+        }
+        return out;
+    }
+
+    @Benchmark
+    public Map<Integer, String> currentCandidatesWithOffsets() {
+        return MacUtils.getPotentialBssidsWithOffsets(MacUtils.extractMacFromIid(iid));
+    }
+
+    @Benchmark
+    public long[] primitiveCandidates() {
+        return MacUtils.getPotentialBssids(MacUtils.macFromIid(iidLong), bssids);
+    }
+
+    /** Primitive candidates plus the netid formatting a cache miss needs, into a reused buffer. */
+    @Benchmark
+    public void primitiveCandidatesFormatted(Blackhole bh) {
+        MacUtils.getPotentialBssids(MacUtils.macFromIid(iidLong), bssids);
+        for (long bssid : bssids) {
+            MacUtils.writeMac(bssid, buf, 0, (char) 0);
+            bh.consume(buf);
+        }
+    }
+
+    private static String legacyBytesToMacString(byte[] mac) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mac.length; i++) {
+            sb.append(String.format("%02x", mac[i]));
+            if (i < mac.length - 1) sb.append(":");
+        }
+        return sb.toString();
+    }
+
+    private static String legacyLongToMacString(long macLong) {
+        byte[] mac = new byte[6];
+        for (int i = 5; i >= 0; i--) {
+            mac[i] = (byte) (macLong & 0xFF);
+            macLong >>= 8;
+        }
+        return legacyBytesToMacString(mac);
+    }
+}
@@ -0,0 +1,74 @@
+package com.yourproject;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end staged and incremental probing against an in-process FakeWigleServer.
+ *
+ * Every invocation uses a fresh WAN MAC, so all probes miss the caches and go
+ * through the scheduler and HTTP client. The responder answers instantly;
+ * what is measured is our own overhead per landmark, not network latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Without nodelay the stub's header/body writes hit Nagle + delayed ACK (~40 ms per call).
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class StagedQueryBenchmark {
+
+    // 100: stage 1 always clusters. 30: most MACs escalate to stage 2.
+    @Param({"100", "30"})
+    public int hitPercent;
+
+    private FakeWigleServer server;
+    private LocationFinder finder;
+    private long nextMac;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new FakeWigleServer(0, 8);
+        server.setHitPercent(hitPercent);
+        // No real limits: the scheduler is measured, not the WiGLE rate cap.
+        WigleRequestScheduler scheduler = new WigleRequestScheduler(1_000_000, 64, Long.MAX_VALUE);
+        finder = new LocationFinder(null, server.url(), scheduler);
+        nextMac = 0x0A0000000000L;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public List<LocationFinder.LocationHit> stagedQueryAlgorithm() {
+        return finder.stagedQueryAlgorithm(nextMac()).join();
+    }
+
+    @Benchmark
+    public List<LocationFinder.LocationHit> incrementalQueryAlgorithm() {
+        return finder.incrementalQueryAlgorithm(nextMac()).join();
+    }
+
+    private synchronized long nextMac() {
+        long mac = nextMac;
+        nextMac += 64; // clear of the previous MAC's [-8, +8] window
+        return mac;
+    }
+}
@@ -0,0 +1,206 @@
+package com.yourproject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * BSSID -> coordinate cache keyed by the 48-bit BSSID as a primitive long.
+ *
+ * Entries live in flat arrays (key, packed lat/lon, write time), about 20
+ * bytes each instead of a String key, a boxed hit and a cache node. The
+ * table is split into segments, each a fixed-size linear-probing table with
+ * its own StampedLock: lookups use optimistic reads and allocate nothing.
+ * Entries expire a fixed time after they were written. When a segment is
+ * full, the oldest entry near the new key's home slot is evicted.
+ */
+public class BssidCache {
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final double MAX_LOAD = 0.75;
+    private static final int EVICTION_SAMPLE = 16;
+
+    // Write times are stored as int seconds since this epoch (2020-01-01T00:00:00Z).
+    private static final long TIME_EPOCH_SECONDS = 1_577_836_800L;
+
+    // Keys carry this bit so that 0 can mean "empty slot".
+    private static final long OCCUPIED = 1L << 48;
+    private static final long MAC_MASK = OCCUPIED - 1;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int expireAfterWriteSeconds;
+
+    public BssidCache(long maximumSize, long expireAfterWrite, TimeUnit unit) {
+        this.expireAfterWriteSeconds = (int) Math.min(Integer.MAX_VALUE, unit.toSeconds(expireAfterWrite));
+        int perSegment = (int) Math.max(1, (maximumSize + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * @return the packed coordinate ({@link PackedLatLon}), or {@link PackedLatLon#NONE}.
+     */
+    public long get(long bssid) {
+        long key = (bssid & MAC_MASK) | OCCUPIED;
+        long hash = LongLongHashMap.mix(key);
+        return segments[segmentIndex(hash)].get(key, (int) hash, nowSeconds() - expireAfterWriteSeconds);
+    }
+
+    public void put(long bssid, long packedLatLon) {
+        put(bssid, packedLatLon, System.currentTimeMillis());
+    }
+
+    /**
+     * Stores an entry with an explicit write time, e.g. when loading from a persistent store.
+     * Entries that are already expired are ignored.
+     */
+    public void put(long bssid, long packedLatLon, long writeTimeMillis) {
+        int writeTime = toCacheSeconds(writeTimeMillis);
+        int cutoff = nowSeconds() - expireAfterWriteSeconds;
+        if (writeTime < cutoff) return;
+        long key = (bssid & MAC_MASK) | OCCUPIED;
+        long hash = LongLongHashMap.mix(key);
+        segments[segmentIndex(hash)].put(key, (int) hash, packedLatLon, writeTime, cutoff);
+    }
+
+    public long size() {
+        long total = 0;
+        for (Segment s : segments) total += s.size;
+        return total;
+    }
+
+    public long capacity() {
+        long total = 0;
+        for (Segment s : segments) total += s.maxEntries;
+        return total;
+    }
+
+    /** Approximate heap used by the tables. */
+    public long memoryBytes() {
+        long total = 0;
+        for (Segment s : segments) total += (long) s.keys.length * (8 + 8 + 4);
+        return total;
+    }
+
+    // --- Internals ---
+
+    private static int segmentIndex(long hash) {
+        return (int) (hash >>> (64 - SEGMENT_BITS));
+    }
+
+    private static int nowSeconds() {
+        return toCacheSeconds(System.currentTimeMillis());
+    }
+
+    private static int toCacheSeconds(long millis) {
+        return (int) (millis / 1000 - TIME_EPOCH_SECONDS);
+    }
+
+    private static final class Segment {
+        final StampedLock lock = new StampedLock();
+        final long[] keys;
+        final long[] values;
+        final int[] writeTimes;
+        final int mask;
+        final int maxEntries;
+        int size;
+
+        Segment(int maxEntries) {
+            int capacity = Integer.highestOneBit((int) Math.ceil(maxEntries / MAX_LOAD) - 1) << 1;
+            this.keys = new long[capacity];
+            this.values = new long[capacity];
+            this.writeTimes = new int[capacity];
+            this.mask = capacity - 1;
+            this.maxEntries = maxEntries;
+        }
+
+        long get(long key, int hash, int cutoff) {
+            long stamp = lock.tryOptimisticRead();
+            long result = find(key, hash, cutoff);
+            if (lock.validate(stamp)) return result;
+
+            stamp = lock.readLock();
+            try {
+                return find(key, hash, cutoff);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private long find(long key, int hash, int cutoff) {
+            int slot = hash & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                long k = keys[slot];
+                if (k == key) {
+                    return writeTimes[slot] >= cutoff ? values[slot] : PackedLatLon.NONE;
+                }
+                if (k == 0) break;
+                slot = (slot + 1) & mask;
+            }
+            return PackedLatLon.NONE;
+        }
+
+        void put(long key, int hash, long value, int writeTime, int cutoff) {
+            long stamp = lock.writeLock();
+            try {
+                int slot = hash & mask;
+                while (keys[slot] != 0) {
+                    if (keys[slot] == key) {
+                        values[slot] = value;
+                        writeTimes[slot] = writeTime;
+                        return;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                if (size >= maxEntries) {
+                    evictNear(hash & mask, cutoff);
+                    // The eviction may have shifted entries; find the free slot again.
+                    slot = hash & mask;
+                    while (keys[slot] != 0) slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = value;
+                writeTimes[slot] = writeTime;
+                size++;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /** Removes an expired entry, or else the oldest of a few entries around {@code start}. */
+        private void evictNear(int start, int cutoff) {
+            int victim = -1;
+            int oldest = Integer.MAX_VALUE;
+            int slot = start;
+            for (int seen = 0, scanned = 0; seen < EVICTION_SAMPLE && scanned <= mask;
+                 slot = (slot + 1) & mask, scanned++) {
+                if (keys[slot] == 0) continue;
+                seen++;
+                if (writeTimes[slot] < oldest) {
+                    oldest = writeTimes[slot];
+                    victim = slot;
+                    if (oldest < cutoff) break;
+                }
+            }
+            removeAt(victim);
+        }
+
+        private void removeAt(int slot) {
+            size--;
+            int gap = slot;
+            int next = (gap + 1) & mask;
+            while (keys[next] != 0) {
+                int home = (int) LongLongHashMap.mix(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    keys[gap] = keys[next];
+                    values[gap] = values[next];
+                    writeTimes[gap] = writeTimes[next];
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+            keys[gap] = 0;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.yourproject;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent tier of the BSSID cache, backed by the 'bssid_cache' collection.
+ *
+ * New WiGLE hits and cache uses are collected in primitive maps (so repeated
+ * uses of one BSSID collapse into one write) and flushed in the background as
+ * unordered bulk upserts. The maps are striped by BSSID, so the import threads
+ * recording cache hits rarely wait on each other or on a flush. At startup {@link #preload} warms an in-memory
+ * BssidCache with the most recently used entries, bounded by an entry limit
+ * and a time budget.
+ *
+ * Document shape: { _id: bssid (long), lat, lon, updated_at, last_used }.
+ */
+public class BssidCacheStore implements AutoCloseable {
+
+    private static final long FLUSH_INTERVAL_MILLIS = 5_000;
+    private static final int MAX_BATCH_SIZE = 1000;
+    // Beyond this many pending writes (e.g. MongoDB is down) new ones are dropped.
+    private static final int MAX_PENDING = 200_000;
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int MAX_PENDING_PER_STRIPE = MAX_PENDING / STRIPES;
+
+    private final MongoCollection<Document> collection;
+    private final long expireAfterWriteMillis;
+    private final ScheduledExecutorService flusher;
+
+    // Per stripe, guarded by locks[stripe]: bssid -> packed lat/lon, and bssid -> unused.
+    private final Object[] locks = new Object[STRIPES];
+    private final LongLongHashMap[] pendingHits = new LongLongHashMap[STRIPES];
+    private final LongLongHashMap[] pendingUses = new LongLongHashMap[STRIPES];
+
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    public BssidCacheStore(MongoCollection<Document> collection, long expireAfterWrite, TimeUnit unit) {
+        this.collection = collection;
+        this.expireAfterWriteMillis = unit.toMillis(expireAfterWrite);
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+            pendingHits[i] = new LongLongHashMap();
+            pendingUses[i] = new LongLongHashMap();
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bssid-cache-store");
+            t.setDaemon(true);
+            return t;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flush,
+                FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a new WiGLE result for persistence.
+     */
+    public void recordHit(long bssid, long packedLatLon) {
+        int s = stripe(bssid);
+        synchronized (locks[s]) {
+            if (pendingHits[s].size() < MAX_PENDING_PER_STRIPE) {
+                pendingHits[s].put(bssid, packedLatLon);
+                return;
+            }
+        }
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Marks an entry as used so it is preloaded early on the next start.
+     */
+    public void recordUse(long bssid) {
+        int s = stripe(bssid);
+        synchronized (locks[s]) {
+            if (pendingUses[s].size() < MAX_PENDING_PER_STRIPE) {
+                pendingUses[s].put(bssid, 1L);
+                return;
+            }
+        }
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * Loads up to {@code maxEntries} unexpired entries into the cache, most
+     * recently used first, stopping early once {@code timeBudgetMillis} is spent.
+     * Documents without a numeric _id, lat and lon or an updated_at date are
+     * skipped. The last_used index it relies on is created by {@link SchemaManager}.
+     *
+     * @return the number of entries loaded.
+     */
+    public long preload(BssidCache cache, long maxEntries, long timeBudgetMillis) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
+        long loaded = 0;
+        long skipped = 0;
+        boolean outOfTime = false;
+
+        try {
+            Date cutoff = new Date(System.currentTimeMillis() - expireAfterWriteMillis);
+            try (MongoCursor<Document> cursor = collection.find(Filters.gte("updated_at", cutoff))
+                    .sort(Sorts.descending("last_used"))
+                    .limit((int) Math.min(Integer.MAX_VALUE, maxEntries))
+                    .batchSize(10_000)
+                    .iterator()) {
+                while (cursor.hasNext()) {
+                    Document doc = cursor.next();
+                    Object id = doc.get("_id");
+                    Object lat = doc.get("lat");
+                    Object lon = doc.get("lon");
+                    Object updatedAt = doc.get("updated_at");
+                    if (id instanceof Number && lat instanceof Number && lon instanceof Number
+                            && updatedAt instanceof Date) {
+                        cache.put(((Number) id).longValue(),
+                                PackedLatLon.pack(((Number) lat).doubleValue(), ((Number) lon).doubleValue()),
+                                ((Date) updatedAt).getTime());
+                        loaded++;
+                    } else {
+                        skipped++;
+                    }
+                    if (((loaded + skipped) & 1023) == 0 && System.nanoTime() > deadline) {
+                        outOfTime = true;
+                        break;
+                    }
+                }
+            }
+        } catch (MongoException e) {
+            System.out.println("BSSID cache preload failed: " + e.getMessage());
+        }
+
+        System.out.printf("BSSID cache preloaded %,d entries in %d ms%s%s%n", loaded,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                skipped > 0 ? String.format(", skipped %,d malformed", skipped) : "",
+                outOfTime ? " (time budget reached)" : "");
+        return loaded;
+    }
+
+    /**
+     * Writes everything recorded so far.
+     */
+    public void flush() {
+        Date now = new Date();
+        List<WriteModel<Document>> batch = new ArrayList<>();
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+
+        for (int s = 0; s < STRIPES; s++) {
+            LongLongHashMap hits;
+            LongLongHashMap uses;
+            synchronized (locks[s]) {
+                if (pendingHits[s].isEmpty() && pendingUses[s].isEmpty()) continue;
+                hits = pendingHits[s];
+                uses = pendingUses[s];
+                pendingHits[s] = new LongLongHashMap();
+                pendingUses[s] = new LongLongHashMap();
+            }
+
+            hits.forEach((bssid, packed) -> {
+                batch.add(new UpdateOneModel<>(Filters.eq("_id", bssid), Updates.combine(
+                        Updates.set("lat", PackedLatLon.latitude(packed)),
+                        Updates.set("lon", PackedLatLon.longitude(packed)),
+                        Updates.set("updated_at", now),
+                        Updates.set("last_used", now)), upsert));
+                if (batch.size() == MAX_BATCH_SIZE) writeBatch(batch);
+            });
+            // A BSSID's hit and use land in the same stripe.
+            uses.forEach((bssid, unused) -> {
+                if (hits.containsKey(bssid)) return;
+                batch.add(new UpdateOneModel<>(Filters.eq("_id", bssid), Updates.set("last_used", now)));
+                if (batch.size() == MAX_BATCH_SIZE) writeBatch(batch);
+            });
+        }
+        writeBatch(batch);
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdown();
+        flush();
+    }
+
+    public long writtenCount() { return written.get(); }
+    public long droppedCount() { return dropped.get(); }
+
+    private static int stripe(long bssid) {
+        // High bits, since the maps themselves index by the low bits of the same hash.
+        return (int) (LongLongHashMap.mix(bssid) >>> (64 - STRIPE_BITS));
+    }
+
+    private void writeBatch(List<WriteModel<Document>> batch) {
+        if (batch.isEmpty()) return;
+        try {
+            collection.bulkWrite(batch, new BulkWriteOptions().ordered(false));
+            written.addAndGet(batch.size());
+        } catch (MongoException e) {
+            System.out.println("BSSID cache batch of " + batch.size() + " failed: " + e.getMessage());
+        }
+        batch.clear();
+    }
+}
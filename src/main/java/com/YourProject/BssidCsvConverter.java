@@ -0,0 +1,368 @@
+package com.yourproject;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Converts a BSSID location dump (CSV) into the sorted binary file read by
+ * {@link LocalBssidDatabase}.
+ *
+ * Rows need a BSSID (aa:bb:cc:dd:ee:ff, aa-bb-..., or 12 hex digits), a
+ * latitude and a longitude. Without a header the first three columns are
+ * used; a header row (e.g. WiGLE's "MAC,...,CurrentLatitude,CurrentLongitude")
+ * selects the columns by name. Rows that don't parse, and coordinates that
+ * are out of range or exactly 0,0, are skipped and counted.
+ *
+ * Works for dumps far larger than the heap: rows are read in runs, each run is
+ * radix-sorted in primitive arrays and written to a temp file, and the runs
+ * are k-way merged into the output. When a BSSID appears more than once, the
+ * first row in the input wins.
+ */
+public class BssidCsvConverter {
+
+    public static final int DEFAULT_RUN_RECORDS = 4 * 1024 * 1024; // 64 MB of keys + values
+
+    private static final int IO_BUFFER_BYTES = 1 << 20;
+
+    private final int runRecords;
+
+    // --- Totals for the last conversion ---
+    private long rows;
+    private long skipped;
+    private long duplicates;
+    private long written;
+
+    public BssidCsvConverter() {
+        this(DEFAULT_RUN_RECORDS);
+    }
+
+    public BssidCsvConverter(int runRecords) {
+        if (runRecords < 1) throw new IllegalArgumentException("runRecords must be positive");
+        this.runRecords = runRecords;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: BssidCsvConverter <input.csv> <output.bin> [records-per-run]");
+            return;
+        }
+        BssidCsvConverter converter = args.length > 2
+                ? new BssidCsvConverter(Integer.parseInt(args[2]))
+                : new BssidCsvConverter();
+        long start = System.nanoTime();
+        converter.convert(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.printf("Converted %s -> %s in %.1fs: %s%n", args[0], args[1],
+                (System.nanoTime() - start) / 1e9, converter);
+    }
+
+    /**
+     * Converts {@code csv} into {@code output} (written to a temp file, then moved into place).
+     *
+     * @return the number of records written.
+     */
+    public long convert(Path csv, Path output) throws IOException {
+        rows = skipped = duplicates = written = 0;
+        Path tmpDir = Files.createTempDirectory(output.toAbsolutePath().getParent(), "bssid-runs");
+        List<Path> runs = new ArrayList<>();
+        try {
+            writeRuns(csv, tmpDir, runs);
+            Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+            merge(runs, tmp);
+            Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return written;
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            Files.deleteIfExists(tmpDir);
+        }
+    }
+
+    public long rowCount() { return rows; }
+    public long skippedCount() { return skipped; }
+    public long duplicateCount() { return duplicates; }
+    public long writtenCount() { return written; }
+
+    @Override
+    public String toString() {
+        return String.format("%,d rows, %,d skipped, %,d duplicate BSSIDs, %,d records written",
+                rows, skipped, duplicates, written);
+    }
+
+    // --- Pass 1: sorted runs ---
+
+    private void writeRuns(Path csv, Path tmpDir, List<Path> runs) throws IOException {
+        long[] keys = new long[runRecords];
+        long[] values = new long[runRecords];
+        long[] keyScratch = new long[runRecords];
+        long[] valueScratch = new long[runRecords];
+        int n = 0;
+
+        int macColumn = 0, latColumn = 1, lonColumn = 2;
+        boolean headerSeen = false;
+
+        try (BufferedReader reader = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) == '#') continue;
+                rows++;
+
+                long mac = parseMac(field(line, macColumn));
+                double lat = parseDouble(field(line, latColumn));
+                double lon = parseDouble(field(line, lonColumn));
+                if (mac < 0 || !validCoordinate(lat, lon)) {
+                    if (!headerSeen) {
+                        int[] columns = headerColumns(line);
+                        if (columns != null) {
+                            macColumn = columns[0];
+                            latColumn = columns[1];
+                            lonColumn = columns[2];
+                            headerSeen = true;
+                            rows--;
+                            continue;
+                        }
+                    }
+                    skipped++;
+                    continue;
+                }
+
+                keys[n] = mac;
+                values[n] = PackedLatLon.pack(lat, lon);
+                if (++n == runRecords) {
+                    runs.add(writeRun(tmpDir, runs.size(), keys, values, keyScratch, valueScratch, n));
+                    n = 0;
+                }
+            }
+        }
+        if (n > 0) {
+            runs.add(writeRun(tmpDir, runs.size(), keys, values, keyScratch, valueScratch, n));
+        }
+    }
+
+    private static Path writeRun(Path tmpDir, int index, long[] keys, long[] values,
+                                 long[] keyScratch, long[] valueScratch, int n) throws IOException {
+        radixSort(keys, values, keyScratch, valueScratch, n);
+        Path run = tmpDir.resolve("run-" + index + ".bin");
+        try (RecordWriter out = new RecordWriter(run)) {
+            for (int i = 0; i < n; i++) {
+                out.write(keys[i], values[i]);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Stable LSD radix sort of the 48-bit keys, carrying the values along.
+     * Six byte-wide passes, so the result ends up back in keys/values.
+     */
+    static void radixSort(long[] keys, long[] values, long[] keyScratch, long[] valueScratch, int n) {
+        int[] counts = new int[257];
+        long[] srcK = keys, srcV = values, dstK = keyScratch, dstV = valueScratch;
+        for (int shift = 0; shift < 48; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                counts[(int) (srcK[i] >>> shift & 0xFF) + 1]++;
+            }
+            for (int b = 0; b < 256; b++) {
+                counts[b + 1] += counts[b];
+            }
+            for (int i = 0; i < n; i++) {
+                int to = counts[(int) (srcK[i] >>> shift & 0xFF)]++;
+                dstK[to] = srcK[i];
+                dstV[to] = srcV[i];
+            }
+            long[] t = srcK; srcK = dstK; dstK = t;
+            t = srcV; srcV = dstV; dstV = t;
+        }
+    }
+
+    // --- Pass 2: k-way merge ---
+
+    private void merge(List<Path> runs, Path output) throws IOException {
+        PriorityQueue<RecordReader> heads = new PriorityQueue<>((a, b) -> {
+            int c = Long.compare(a.key, b.key);
+            return c != 0 ? c : Integer.compare(a.runIndex, b.runIndex); // earlier run = earlier row
+        });
+        List<RecordReader> readers = new ArrayList<>();
+        try (RecordWriter out = new RecordWriter(output)) {
+            out.writeHeader(0);
+            for (int i = 0; i < runs.size(); i++) {
+                RecordReader reader = new RecordReader(runs.get(i), i);
+                readers.add(reader);
+                if (reader.next()) heads.add(reader);
+            }
+
+            long last = -1;
+            while (!heads.isEmpty()) {
+                RecordReader head = heads.poll();
+                if (head.key == last) {
+                    duplicates++;
+                } else {
+                    out.write(head.key, head.value);
+                    last = head.key;
+                    written++;
+                }
+                if (head.next()) heads.add(head);
+            }
+            out.writeHeader(written);
+        } finally {
+            for (RecordReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    // --- CSV helpers ---
+
+    private static String field(String line, int column) {
+        int start = 0;
+        for (int c = 0; c < column; c++) {
+            start = line.indexOf(',', start) + 1;
+            if (start == 0) return null;
+        }
+        int end = line.indexOf(',', start);
+        return (end < 0 ? line.substring(start) : line.substring(start, end)).trim();
+    }
+
+    /** 48-bit MAC from 12 hex digits with optional ':', '-' or '.' separators; -1 if invalid. */
+    static long parseMac(String text) {
+        if (text == null) return -1;
+        long mac = 0;
+        int digits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            int d = Character.digit(ch, 16);
+            if (d >= 0) {
+                if (++digits > 12) return -1;
+                mac = (mac << 4) | d;
+            } else if (ch != ':' && ch != '-' && ch != '.' && ch != '"') {
+                return -1;
+            }
+        }
+        return digits == 12 ? mac : -1;
+    }
+
+    private static double parseDouble(String text) {
+        if (text == null || text.isEmpty()) return Double.NaN;
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static boolean validCoordinate(double lat, double lon) {
+        return lat >= -90 && lat <= 90 && lon >= -180 && lon <= 180 && !(lat == 0 && lon == 0);
+    }
+
+    /** {mac, lat, lon} column indexes if this line is a recognisable header, else null. */
+    private static int[] headerColumns(String line) {
+        String[] names = line.toLowerCase(Locale.ROOT).split(",");
+        int mac = -1, lat = -1, lon = -1;
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].trim().replace("\"", "");
+            if (mac < 0 && (name.equals("mac") || name.equals("bssid") || name.equals("netid"))) mac = i;
+            if (lat < 0 && (name.equals("lat") || name.equals("latitude") || name.equals("trilat")
+                    || name.equals("currentlatitude"))) lat = i;
+            if (lon < 0 && (name.equals("lon") || name.equals("lng") || name.equals("longitude")
+                    || name.equals("trilong") || name.equals("currentlongitude"))) lon = i;
+        }
+        return mac >= 0 && lat >= 0 && lon >= 0 ? new int[] {mac, lat, lon} : null;
+    }
+
+    // --- Record I/O (little-endian, like the database file) ---
+
+    private static final class RecordWriter implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        RecordWriter(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        /** Writes the header at the start of the file (call again at the end with the final count). */
+        void writeHeader(long count) throws IOException {
+            if (channel.position() == 0 && buffer.position() == 0) {
+                buffer.putInt(LocalBssidDatabase.MAGIC).putInt(LocalBssidDatabase.RECORD_BYTES).putLong(count);
+                return;
+            }
+            flushBuffer();
+            ByteBuffer header = ByteBuffer.allocate(LocalBssidDatabase.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(LocalBssidDatabase.MAGIC).putInt(LocalBssidDatabase.RECORD_BYTES).putLong(count).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+
+        void write(long key, long value) throws IOException {
+            if (buffer.remaining() < LocalBssidDatabase.RECORD_BYTES) flushBuffer();
+            buffer.putLong(key).putLong(value);
+        }
+
+        private void flushBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBuffer();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static final class RecordReader implements Closeable {
+        final int runIndex;
+        long key;
+        long value;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        RecordReader(Path file, int runIndex) throws IOException {
+            this.runIndex = runIndex;
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            buffer.limit(0);
+        }
+
+        boolean next() throws IOException {
+            if (buffer.remaining() < LocalBssidDatabase.RECORD_BYTES) {
+                buffer.compact();
+                while (buffer.position() < LocalBssidDatabase.RECORD_BYTES && channel.read(buffer) > 0) {
+                    // keep reading until a whole record is buffered or the file ends
+                }
+                buffer.flip();
+                if (buffer.remaining() < LocalBssidDatabase.RECORD_BYTES) return false;
+            }
+            key = buffer.getLong();
+            value = buffer.getLong();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
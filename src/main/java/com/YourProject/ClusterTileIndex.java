@@ -0,0 +1,271 @@
+package com.yourproject;
+
+import com.google.gson.stream.JsonWriter;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Projections;
+import org.bson.Document;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Server-side clustering for the landmark map, as a pyramid of Web Mercator
+ * grids.
+ *
+ * Zoom level z (0..MAX_ZOOM) splits every 256px map tile into 32x32 cells of
+ * 8px. Each cell keeps its landmark count, how many of them are reliable, and
+ * the Mercator coordinate sums of both, so a tile's clusters are just its
+ * non-empty cells with their centroids. Adding a landmark touches one cell per
+ * level; nothing is ever re-clustered. Above MAX_ZOOM the finest level is
+ * used, and the map is better served by /api/landmarks anyway.
+ *
+ * Built once from the landmarks collection and kept current by listening to
+ * the writers (see {@link LandmarkListener}).
+ */
+public class ClusterTileIndex implements LandmarkListener {
+
+    public static final int MAX_ZOOM = 12;
+
+    private static final int CELL_BITS = 5; // 32x32 cells per tile
+    private static final double MAX_MERCATOR_LATITUDE = 85.05112878;
+    private static final int LOAD_BATCH_SIZE = 10_000;
+
+    private final Level[] levels = new Level[MAX_ZOOM + 1];
+
+    public ClusterTileIndex() {
+        for (int z = 0; z <= MAX_ZOOM; z++) {
+            levels[z] = new Level(z + CELL_BITS);
+        }
+    }
+
+    /**
+     * Adds every landmark in {@code collection}, streaming only the needed fields.
+     *
+     * @return the number of landmarks added.
+     */
+    public long loadFrom(MongoCollection<Document> collection) {
+        long start = System.nanoTime();
+        long loaded = 0;
+        try (MongoCursor<Document> cursor = collection.find()
+                .projection(Projections.include("latitude", "longitude", "is_reliable"))
+                .batchSize(LOAD_BATCH_SIZE)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                if (add(cursor.next())) loaded++;
+            }
+        }
+        System.out.printf("Cluster tile index: %,d landmarks loaded in %d ms%n",
+                loaded, (System.nanoTime() - start) / 1_000_000);
+        return loaded;
+    }
+
+    @Override
+    public void landmarkAdded(Document landmark) {
+        add(landmark);
+    }
+
+    @Override
+    public void reliabilityChanged(Document landmark, boolean reliable) {
+        Object lat = landmark.get("latitude");
+        Object lon = landmark.get("longitude");
+        if (!(lat instanceof Number) || !(lon instanceof Number)) return;
+        double x = mercatorX(((Number) lon).doubleValue());
+        double y = mercatorY(((Number) lat).doubleValue());
+        if (Double.isNaN(x) || Double.isNaN(y)) return;
+        for (Level level : levels) {
+            level.changeReliable(x, y, reliable ? 1 : -1);
+        }
+    }
+
+    /** Adds one landmark document; false if it has no usable coordinates. */
+    private boolean add(Document landmark) {
+        Object lat = landmark.get("latitude");
+        Object lon = landmark.get("longitude");
+        if (!(lat instanceof Number) || !(lon instanceof Number)) return false;
+        double x = mercatorX(((Number) lon).doubleValue());
+        double y = mercatorY(((Number) lat).doubleValue());
+        if (Double.isNaN(x) || Double.isNaN(y)) return false;
+        int reliable = Boolean.TRUE.equals(landmark.get("is_reliable")) ? 1 : 0;
+        for (Level level : levels) {
+            level.add(x, y, reliable);
+        }
+        return true;
+    }
+
+    /**
+     * Clusters of tile (z, x, y) as JSON:
+     * {"z","x","y","maxZoom","clusters":[{"lat","lng","count"},...]}.
+     *
+     * @param reliableOnly count (and place) only reliable landmarks.
+     * @return null if the tile doesn't exist at that zoom.
+     */
+    public String tileJson(int z, int x, int y, boolean reliableOnly) {
+        if (z < 0 || z > 30 || x < 0 || y < 0 || x >= (1 << z) || y >= (1 << z)) return null;
+        Level level = levels[Math.min(z, MAX_ZOOM)];
+
+        // Cells of this level that overlap the tile.
+        int cellFrom, cellTo;
+        if (level.bits >= z) {
+            cellFrom = x << (level.bits - z);
+            cellTo = (x + 1) << (level.bits - z);
+        } else {
+            cellFrom = x >> (z - level.bits);
+            cellTo = cellFrom + 1;
+        }
+        int rowFrom = level.bits >= z ? y << (level.bits - z) : y >> (z - level.bits);
+        int rowTo = level.bits >= z ? (y + 1) << (level.bits - z) : rowFrom + 1;
+
+        double tileSize = 1.0 / (1L << z);
+        double minX = x * tileSize, maxX = minX + tileSize;
+        double minY = y * tileSize, maxY = minY + tileSize;
+
+        StringWriter out = new StringWriter();
+        try (JsonWriter json = new JsonWriter(out)) {
+            json.beginObject()
+                    .name("z").value(z).name("x").value(x).name("y").value(y)
+                    .name("maxZoom").value(MAX_ZOOM)
+                    .name("clusters").beginArray();
+            double[] cell = new double[3];
+            synchronized (level) { // one consistent snapshot of the tile
+                for (int cx = cellFrom; cx < cellTo; cx++) {
+                    for (int cy = rowFrom; cy < rowTo; cy++) {
+                        if (!level.read(cx, cy, reliableOnly, cell)) continue;
+                        double centroidX = cell[1] / cell[0];
+                        double centroidY = cell[2] / cell[0];
+                        // A cell bigger than the tile belongs to the tile its centroid is in.
+                        if (centroidX < minX || centroidX >= maxX || centroidY < minY || centroidY >= maxY) continue;
+                        json.beginObject()
+                                .name("lat").value(round(latitudeOf(centroidY)))
+                                .name("lng").value(round(longitudeOf(centroidX)))
+                                .name("count").value((long) cell[0])
+                                .endObject();
+                    }
+                }
+            }
+            json.endArray().endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringWriter doesn't throw
+        }
+        return out.toString();
+    }
+
+    public long landmarkCount() {
+        return levels[0].total();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d landmarks, %,d cells at zoom %d", landmarkCount(), levels[MAX_ZOOM].cellCount(),
+                MAX_ZOOM);
+    }
+
+    // --- Web Mercator, normalised to [0, 1) ---
+
+    static double mercatorX(double longitude) {
+        if (!(Math.abs(longitude) <= 180)) return Double.NaN;
+        return Math.min((longitude + 180) / 360, Math.nextDown(1.0));
+    }
+
+    static double mercatorY(double latitude) {
+        if (!(Math.abs(latitude) <= 90)) return Double.NaN;
+        double lat = Math.toRadians(Math.max(-MAX_MERCATOR_LATITUDE, Math.min(MAX_MERCATOR_LATITUDE, latitude)));
+        double y = (1 - Math.log(Math.tan(lat) + 1 / Math.cos(lat)) / Math.PI) / 2;
+        return Math.max(0, Math.min(y, Math.nextDown(1.0)));
+    }
+
+    static double longitudeOf(double x) {
+        return x * 360 - 180;
+    }
+
+    static double latitudeOf(double y) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y))));
+    }
+
+    private static double round(double degrees) {
+        return Math.round(degrees * 1e5) / 1e5; // ~1 m
+    }
+
+    /**
+     * One grid of 2^bits x 2^bits cells. Cell (cx, cy) maps to a row in the
+     * parallel arrays through a primitive hash map; guarded by 'this'.
+     */
+    private static final class Level {
+        final int bits;
+        private final LongLongHashMap rows = new LongLongHashMap();
+        private int[] counts = new int[64];
+        private int[] reliableCounts = new int[64];
+        private double[] sums = new double[64 * 2];         // x, y of all landmarks
+        private double[] reliableSums = new double[64 * 2]; // x, y of reliable ones
+        private long total = 0;
+
+        Level(int bits) {
+            this.bits = bits;
+        }
+
+        synchronized void add(double x, double y, int reliable) {
+            int row = rowFor(key(x, y));
+            counts[row]++;
+            sums[2 * row] += x;
+            sums[2 * row + 1] += y;
+            reliableCounts[row] += reliable;
+            reliableSums[2 * row] += reliable * x;
+            reliableSums[2 * row + 1] += reliable * y;
+            total++;
+        }
+
+        synchronized void changeReliable(double x, double y, int delta) {
+            long row = rows.get(key(x, y));
+            if (row == LongLongHashMap.NO_VALUE) return;
+            int r = (int) row;
+            if (reliableCounts[r] + delta < 0 || reliableCounts[r] + delta > counts[r]) return;
+            reliableCounts[r] += delta;
+            reliableSums[2 * r] += delta * x;
+            reliableSums[2 * r + 1] += delta * y;
+        }
+
+        /** Writes {count, sumX, sumY} of a cell to {@code out}; false if it is empty. */
+        synchronized boolean read(int cx, int cy, boolean reliableOnly, double[] out) {
+            long row = rows.get((long) cx << 32 | cy);
+            if (row == LongLongHashMap.NO_VALUE) return false;
+            int r = (int) row;
+            int count = reliableOnly ? reliableCounts[r] : counts[r];
+            if (count <= 0) return false;
+            double[] s = reliableOnly ? reliableSums : sums;
+            out[0] = count;
+            out[1] = s[2 * r];
+            out[2] = s[2 * r + 1];
+            return true;
+        }
+
+        synchronized long total() {
+            return total;
+        }
+
+        synchronized int cellCount() {
+            return rows.size();
+        }
+
+        private long key(double x, double y) {
+            long cx = (long) (x * (1L << bits));
+            long cy = (long) (y * (1L << bits));
+            return cx << 32 | cy;
+        }
+
+        private int rowFor(long key) {
+            long row = rows.get(key);
+            if (row != LongLongHashMap.NO_VALUE) return (int) row;
+            int next = rows.size();
+            if (next == counts.length) {
+                counts = Arrays.copyOf(counts, next * 2);
+                reliableCounts = Arrays.copyOf(reliableCounts, next * 2);
+                sums = Arrays.copyOf(sums, next * 4);
+                reliableSums = Arrays.copyOf(reliableSums, next * 4);
+            }
+            rows.put(key, next);
+            return next;
+        }
+    }
+}
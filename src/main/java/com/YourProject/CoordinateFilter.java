@@ -1,8 +1,8 @@
 package com.yourproject;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * NEW ALGORITHM: DBSCAN Clustering.
@@ -14,6 +14,12 @@ public class CoordinateFilter {
     // --- FORMULA: Haversine Distance ---
     private static final double EARTH_RADIUS_KM = 6371.0;
 
+    // Below this many points a plain scan is cheaper than building the grid.
+    private static final int BRUTE_FORCE_LIMIT = 32;
+
+    // Keeps the cheap bounds strictly looser than the Haversine test.
+    private static final double BOUND_SLACK = 1 + 1e-9;
+
     public static double haversineDistance(double lat1, double lon1, double lat2, double lon2) {
         double latDistance = Math.toRadians(lat2 - lat1);
         double lonDistance = Math.toRadians(lon2 - lon1);
@@ -24,17 +30,6 @@ public class CoordinateFilter {
         return EARTH_RADIUS_KM * c;
     }
 
-    // --- A small helper class for DBSCAN ---
-    private static class DbscanPoint {
-        LocationFinder.LocationHit hit;
-        boolean isVisited = false;
-        int clusterId = 0; // 0 = unclassified, -1 = noise
-
-        public DbscanPoint(LocationFinder.LocationHit hit) {
-            this.hit = hit;
-        }
-    }
-
     /**
      * @param allHits   The list of coordinates found for a single WAN MAC.
      * @param epsilon   The max distance (km) to be considered a "neighbor".
@@ -44,91 +39,226 @@ public class CoordinateFilter {
             List<LocationFinder.LocationHit> allHits,
             double epsilon, int minPoints) {
 
+        LocationFinder.LocationHit bestHit = selectFromClusters(allHits, epsilon, minPoints);
+
+        // 2. Fallback: If no cluster found, use "offset == 0" rule.
+        if (bestHit == null && allHits != null) {
+            for (LocationFinder.LocationHit h : allHits) {
+                if (h.offset == 0) return h;
+            }
+        }
+        return bestHit;
+    }
+
+    /**
+     * clusterAndSelect without the "offset == 0" fallback: returns null unless
+     * the hits contain a dense cluster.
+     */
+    public static LocationFinder.LocationHit selectFromClusters(
+            List<LocationFinder.LocationHit> allHits,
+            double epsilon, int minPoints) {
+
         if (allHits == null || allHits.isEmpty()) {
             return null;
         }
 
-        List<DbscanPoint> points = allHits.stream()
-                .map(DbscanPoint::new)
-                .collect(Collectors.toList());
+        int n = allHits.size();
+        LocationFinder.LocationHit[] hits = allHits.toArray(new LocationFinder.LocationHit[0]);
+        NeighborIndex index = new NeighborIndex(hits, epsilon);
 
-        List<List<DbscanPoint>> clusters = new ArrayList<>();
+        int[] clusterIds = new int[n]; // 0 = unclassified, -1 = noise
+        BitSet visited = new BitSet(n);
+        BitSet queued = new BitSet(n);  // ever put on an expansion queue
+        int[] neighbors = new int[n];
+        int[] queue = new int[n];
         int currentClusterId = 1;
 
-        for (DbscanPoint p : points) {
-            if (p.isVisited) continue;
-            p.isVisited = true;
+        // --- Selection Logic (Inspired by paper's rules) ---
+        // Tracked while clusters are built: the first largest cluster wins, and within
+        // it the first member (in expansion order) with the smallest |offset|.
+        int bestClusterSize = 0;
+        LocationFinder.LocationHit bestHit = null;
+
+        for (int p = 0; p < n; p++) {
+            if (visited.get(p)) continue;
+            visited.set(p);
 
-            List<DbscanPoint> neighbors = getNeighbors(p, points, epsilon);
+            int neighborCount = index.neighbors(p, neighbors);
 
-            if (neighbors.size() < minPoints) {
-                p.clusterId = -1; // Mark as noise
-            } else {
-                List<DbscanPoint> cluster = new ArrayList<>();
-                expandCluster(p, neighbors, cluster, currentClusterId, points, epsilon, minPoints);
-                clusters.add(cluster);
-                currentClusterId++;
+            if (neighborCount < minPoints) {
+                clusterIds[p] = -1; // Mark as noise
+                continue;
             }
-        }
 
-        // --- Selection Logic (Inspired by paper's rules) ---
-        // 1. Find the largest cluster.
-        List<DbscanPoint> bestCluster = clusters.stream()
-                .max((c1, c2) -> Integer.compare(c1.size(), c2.size()))
-                .orElse(null);
+            // --- Expand the cluster breadth-first ---
+            // A point that was queued before is already visited and classified, so
+            // queueing it again would be a no-op; the bitset keeps the queue duplicate-free.
+            int clusterId = currentClusterId++;
+            clusterIds[p] = clusterId;
+            queued.set(p);
+            int clusterSize = 1;
+            LocationFinder.LocationHit clusterBest = hits[p];
 
-        // 2. Fallback: If no cluster found, use "offset == 0" rule.
-        if (bestCluster == null || bestCluster.isEmpty()) {
-            return allHits.stream()
-                    .filter(h -> h.offset == 0)
-                    .findFirst()
-                    .orElse(null);
+            int tail = 0;
+            for (int i = 0; i < neighborCount; i++) {
+                int q = neighbors[i];
+                if (!queued.get(q)) {
+                    queued.set(q);
+                    queue[tail++] = q;
+                }
+            }
+
+            for (int head = 0; head < tail; head++) {
+                int q = queue[head];
+                if (!visited.get(q)) {
+                    visited.set(q);
+                    int count = index.neighbors(q, neighbors);
+                    if (count >= minPoints) {
+                        for (int i = 0; i < count; i++) {
+                            int r = neighbors[i];
+                            if (!queued.get(r)) {
+                                queued.set(r);
+                                queue[tail++] = r;
+                            }
+                        }
+                    }
+                }
+                if (clusterIds[q] == 0) {
+                    clusterIds[q] = clusterId;
+                    clusterSize++;
+                    if (Math.abs(hits[q].offset) < Math.abs(clusterBest.offset)) {
+                        clusterBest = hits[q];
+                    }
+                }
+            }
+
+            // 1. Find the largest cluster.
+            if (clusterSize > bestClusterSize) {
+                bestClusterSize = clusterSize;
+                bestHit = clusterBest; // 3. Smallest absolute offset within it.
+            }
         }
 
-        // 3. From the best cluster, select coordinate with smallest absolute offset.
-        return bestCluster.stream()
-                .map(p -> p.hit)
-                .min((h1, h2) -> Integer.compare(Math.abs(h1.offset), Math.abs(h2.offset)))
-                .orElse(null);
+        return bestHit;
     }
 
-    // --- DBSCAN helper: recursively expand a cluster ---
-    private static void expandCluster(DbscanPoint p, List<DbscanPoint> neighbors,
-                                      List<DbscanPoint> cluster, int clusterId,
-                                      List<DbscanPoint> allPoints, double epsilon, int minPoints) {
-        p.clusterId = clusterId;
-        cluster.add(p);
-
-        List<DbscanPoint> currentNeighbors = new ArrayList<>(neighbors);
-        for (int i = 0; i < currentNeighbors.size(); i++) {
-            DbscanPoint n = currentNeighbors.get(i);
-            if (!n.isVisited) {
-                n.isVisited = true;
-                List<DbscanPoint> newNeighbors = getNeighbors(n, allPoints, epsilon);
-                if (newNeighbors.size() >= minPoints) {
-                    currentNeighbors.addAll(newNeighbors);
-                }
+    /**
+     * Finds all points within epsilon (Haversine) of a point, in input order.
+     *
+     * Points are bucketed into a lat/lon grid whose cells are at least epsilon
+     * wide, so only the 3x3 cells around a point can hold neighbours. Before the
+     * Haversine call, candidates must pass two cheap bounds that can never reject
+     * a true neighbour:
+     * - latitude: the great-circle distance is at least R * |dLat|;
+     * - longitude: with both |lat| <= L, hav(d) >= cos^2(L) * hav(dLon), so
+     *   dLon <= 2 * asin(sin(eps / 2R) / cos(L)).
+     */
+    private static final class NeighborIndex {
+        private final double[] lat;
+        private final double[] lon;
+        private final double epsilon;
+        private final int n;
+
+        private final boolean useGrid;
+        private double maxLatDelta;   // degrees
+        private double maxLonDelta;   // degrees, or +inf if unbounded
+        private double rowHeight;
+        private double columnWidth;
+        private int columns;
+        private int[] rows;
+        private int[] cols;
+        private LongLongHashMap cellHeads; // cell key -> first point index
+        private int[] nextInCell;
+
+        NeighborIndex(LocationFinder.LocationHit[] hits, double epsilon) {
+            this.n = hits.length;
+            this.epsilon = epsilon;
+            this.lat = new double[n];
+            this.lon = new double[n];
+            double maxAbsLat = 0;
+            for (int i = 0; i < n; i++) {
+                lat[i] = hits[i].latitude;
+                lon[i] = hits[i].longitude;
+                if (Math.abs(lat[i]) > maxAbsLat) maxAbsLat = Math.abs(lat[i]); // skips NaN
             }
-            if (n.clusterId == 0) {
-                n.clusterId = clusterId;
-                cluster.add(n);
+
+            // The bounds only hold for real coordinates; otherwise fall back to plain Haversine.
+            boolean validLatitudes = maxAbsLat <= 90;
+            this.useGrid = validLatitudes && n > BRUTE_FORCE_LIMIT && epsilon > 0 && epsilon < Double.POSITIVE_INFINITY;
+            this.maxLatDelta = validLatitudes ? Math.toDegrees(epsilon / EARTH_RADIUS_KM) * BOUND_SLACK
+                    : Double.POSITIVE_INFINITY;
+            double s = Math.sin(epsilon / (2 * EARTH_RADIUS_KM)) / Math.cos(Math.toRadians(Math.min(90, maxAbsLat)));
+            this.maxLonDelta = (!validLatitudes || s >= 1 || !(s >= 0)) ? Double.POSITIVE_INFINITY
+                    : Math.toDegrees(2 * Math.asin(s)) * BOUND_SLACK;
+
+            if (useGrid) {
+                buildGrid();
             }
         }
-    }
 
-    // --- DBSCAN helper: find all points within epsilon distance ---
-    private static List<DbscanPoint> getNeighbors(DbscanPoint p, List<DbscanPoint> allPoints, double epsilon) {
-        List<DbscanPoint> neighbors = new ArrayList<>();
-        for (DbscanPoint other : allPoints) {
-            if (p != other) {
-                double dist = haversineDistance(
-                        p.hit.latitude, p.hit.longitude,
-                        other.hit.latitude, other.hit.longitude);
-                if (dist <= epsilon) {
-                    neighbors.add(other);
+        private void buildGrid() {
+            rowHeight = maxLatDelta;
+            columns = maxLonDelta == Double.POSITIVE_INFINITY ? 1 : (int) Math.min(1 << 20, 360 / maxLonDelta);
+            if (columns < 3) columns = 1; // neighbouring columns would wrap onto each other
+            columnWidth = 360.0 / columns;
+
+            rows = new int[n];
+            cols = new int[n];
+            nextInCell = new int[n];
+            cellHeads = new LongLongHashMap(n);
+            for (int i = n - 1; i >= 0; i--) {
+                rows[i] = (int) Math.floor(lat[i] / rowHeight);
+                cols[i] = columnOf(lon[i]);
+                long key = cellKey(rows[i], cols[i]);
+                long head = cellHeads.get(key);
+                nextInCell[i] = head == LongLongHashMap.NO_VALUE ? -1 : (int) head;
+                cellHeads.put(key, i);
+            }
+        }
+
+        /**
+         * Writes the neighbours of {@code p} (excluding p) to {@code out} in ascending order.
+         *
+         * @return the number of neighbours.
+         */
+        int neighbors(int p, int[] out) {
+            int count = 0;
+            if (!useGrid) {
+                for (int q = 0; q < n; q++) {
+                    if (q != p && isNeighbor(p, q)) out[count++] = q;
+                }
+                return count;
+            }
+
+            for (int dr = -1; dr <= 1; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    if (columns == 1 && dc != 0) continue;
+                    int col = Math.floorMod(cols[p] + dc, columns);
+                    long head = cellHeads.get(cellKey(rows[p] + dr, col));
+                    for (int q = head == LongLongHashMap.NO_VALUE ? -1 : (int) head; q >= 0; q = nextInCell[q]) {
+                        if (q != p && isNeighbor(p, q)) out[count++] = q;
+                    }
                 }
             }
+            Arrays.sort(out, 0, count);
+            return count;
+        }
+
+        private boolean isNeighbor(int p, int q) {
+            if (Math.abs(lat[p] - lat[q]) > maxLatDelta) return false;
+            double dLon = Math.abs(lon[p] - lon[q]);
+            if (dLon > 180) dLon = 360 - dLon;
+            if (dLon > maxLonDelta) return false;
+            return haversineDistance(lat[p], lon[p], lat[q], lon[q]) <= epsilon;
+        }
+
+        private int columnOf(double longitude) {
+            int col = (int) Math.floor((longitude + 180) / columnWidth);
+            return Math.floorMod(col, columns);
+        }
+
+        private long cellKey(int row, int col) {
+            return (long) row * columns + col;
         }
-        return neighbors;
     }
 }
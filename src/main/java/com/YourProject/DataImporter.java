@@ -1,41 +1,473 @@
-// Inside src/main/java/com/yourproject/DataImporter.java
-//
-// Add these imports at the top:
-import com.mongodb.client.MongoCollection;
+package com.yourproject;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
 import org.bson.Document;
 
-// (All other code in the file is the same... just replace the method below)
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imports a hitlist of responsive IPv6 addresses and turns every EUI-64
+ * address into a candidate landmark (SOP probing + DBSCAN selection).
+ *
+ * The import is a pipeline of {@link PipelineStage}s joined by bounded
+ * queues:
+ *
+ *   read + EUI-64 filter (HitlistScanner) -> rotation check -> SOP probe
+ *     -> cluster -> persist
+ *
+ * so a slow WiGLE or MongoDB stalls the scan instead of piling up work.
+ *
+ * Each WAN MAC is probed once per run: the rotation stage records every new
+ * MAC in an off-heap {@link MacDedupTable}, and later addresses with the same
+ * IID wait for (or reuse) the first one's result instead of being probed
+ * again. The table starts at up to 64 MiB (or sized for
+ * -Dimport.dedup.expected.macs) and grows as MACs come in, up to a third of
+ * the direct memory limit or -Dimport.dedup.max.mb; at 16 bytes per MAC,
+ * give a big hitlist enough -XX:MaxDirectMemorySize (e.g. 6g for ~100M
+ * distinct MACs). Beyond the limit, new MACs are probed without deduplication.
+ * Each stage's parallelism can be set with -Dimport.STAGE.parallelism
+ * (rotation, probe, cluster, persist) and the queue size with
+ * -Dimport.queue.capacity.
+ *
+ * Progress is checkpointed every -Dimport.checkpoint.interval.s seconds (see
+ * {@link ImportCheckpoint}); an interrupted import of the same file resumes
+ * from the last checkpoint. -Dimport.checkpoint=false turns this off.
+ */
+public class DataImporter {
+
+    // Default number of SOP lookups waiting for WiGLE at once.
+    private static final int MAX_IN_FLIGHT_LOOKUPS = 256;
+    private static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    // Initial MacDedupTable size unless -Dimport.dedup.expected.macs says otherwise: 4M MACs, 64 MiB.
+    private static final long INITIAL_DEDUP_MACS = 1 << 22;
+    // Smaller than the scanner's default, so the checkpointed offset trails the scan by less.
+    private static final int SCAN_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final long DEFAULT_CHECKPOINT_INTERVAL_SECONDS = 30;
+
+    // MacDedupTable states.
+    private static final int MAC_IN_FLIGHT = 1;
+    private static final int MAC_LANDMARK = 2;
+    private static final int MAC_NO_LANDMARK = 3;
+    // Its lookup failed; never journalled, and a later sighting probes it again.
+    private static final int MAC_FAILED = 4;
+
+    private final UpdateService updateService;
+    private final LocationFinder locationFinder;
+    private final HitlistScanner scanner;
+    private final LandmarkWriter landmarkWriter;
+
+    // WAN MACs seen in the current import, and the addresses waiting for an in-flight one.
+    private volatile MacDedupTable macs;
+    private final Map<Long, List<Candidate>> waitingForMac = new HashMap<>();
+    // Null when checkpointing is off.
+    private ImportCheckpoint checkpoint;
+
+    /** An EUI-64 address on its way through the pipeline. */
+    private static final class Candidate {
+        final byte[] address;
+        // The scanner chunk it came from, for the checkpoint.
+        final long chunk;
+        long mac;
+        long startNanos;
+        List<LocationFinder.LocationHit> hits;
+        LocationFinder.LocationHit best;
+        // Whether this is the sighting that set the MAC in flight, and must resolve it.
+        boolean claimed;
+        boolean finished;
+
+        Candidate(byte[] address, long chunk) {
+            this.address = address;
+            this.chunk = chunk;
+        }
+    }
+
+    // --- Metrics ---
+    // Time from starting a MAC's probes to its landmark being selected (or rejected).
+    private static final LatencyHistogram LOOKUP_LATENCY = Metrics.histogram(
+            "lanmarker_import_lookup_seconds", "Probing and selection time per EUI-64 address");
+    private static final Metrics.Counter KNOWN_IIDS = Metrics.counter(
+            "lanmarker_import_known_iids_total", "EUI-64 addresses skipped because the IID is already a landmark");
+    private static final Metrics.Counter SAVES = Metrics.counter(
+            "lanmarker_import_landmarks_saved_total", "Candidate landmarks handed to the writer");
+    private static final Metrics.Counter LOOKUP_ERRORS = Metrics.counter(
+            "lanmarker_import_lookup_errors_total", "EUI-64 lookups that failed with an exception");
+    private static final Metrics.Counter FAILED_ITEMS = Metrics.counter(
+            "lanmarker_import_failed_items_total", "EUI-64 addresses a pipeline stage failed on or dropped");
+    private static final String DUPLICATES = "lanmarker_import_duplicate_macs_total";
+    private static final String DUPLICATES_HELP = "EUI-64 addresses whose WAN MAC was already probed in this import";
+    private static final Metrics.Counter DUPLICATES_LANDMARK = Metrics.counter(
+            DUPLICATES, DUPLICATES_HELP, "result", "landmark");
+    private static final Metrics.Counter DUPLICATES_NO_LANDMARK = Metrics.counter(
+            DUPLICATES, DUPLICATES_HELP, "result", "no_landmark");
+    private static final Metrics.Counter DUPLICATES_FAILED = Metrics.counter(
+            DUPLICATES, DUPLICATES_HELP, "result", "failed");
+    private static final Metrics.Counter DUPLICATES_WAITED = Metrics.counter(
+            "lanmarker_import_duplicate_macs_waited_total", "Duplicate MACs that arrived while the first was in flight");
+    private static final Metrics.Counter DEDUP_TABLE_FULL = Metrics.counter(
+            "lanmarker_import_dedup_table_full_total", "MACs probed without deduplication because the table was full");
+
+    public DataImporter(UpdateService updateService) {
+        this(updateService, new LocationFinder(), new LandmarkWriter(DatabaseManager.getLandmarksCollection()));
+    }
+
+    /**
+     * Lets the load-test driver plug in a LocationFinder pointed at a local WiGLE
+     * stand-in and a LandmarkWriter that doesn't need Mongo.
+     */
+    public DataImporter(UpdateService updateService, LocationFinder locationFinder, LandmarkWriter landmarkWriter) {
+        this.updateService = updateService;
+        this.locationFinder = locationFinder;
+        this.scanner = new HitlistScanner(Runtime.getRuntime().availableProcessors(), SCAN_CHUNK_SIZE);
+        this.landmarkWriter = landmarkWriter;
+        // Track rotations only for landmarks that were actually inserted.
+        landmarkWriter.addLandmarkListener(updateService);
+        Metrics.gauge("lanmarker_import_dedup_macs", "WAN MACs recorded in the current import", () -> {
+            MacDedupTable table = macs;
+            return table == null ? 0 : table.size();
+        });
+    }
+
+    /**
+     * Tells {@code listener} about every landmark this importer saves, once
+     * the LandmarkWriter has inserted it.
+     */
+    public void addLandmarkListener(LandmarkListener listener) {
+        landmarkWriter.addLandmarkListener(listener);
+    }
+
+    public LatencyHistogram getLookupLatency() {
+        return LOOKUP_LATENCY;
+    }
 
     /**
-     * Saves the candidate landmark to the MongoDB database.
+     * Streams the hitlist through the pipeline and blocks until every EUI-64
+     * address has been probed and saved.
      */
-    private void saveCandidateLandmark(String ip, String iid, byte[] mac, LocationFinder.LocationHit hit) {
-        
+    public void importHitlist(Path hitlistPath) {
+        System.out.println("Importing hitlist: " + hitlistPath);
+        int capacity = Integer.getInteger("import.queue.capacity", DEFAULT_QUEUE_CAPACITY);
+        int cpus = Runtime.getRuntime().availableProcessors();
+        macs = newDedupTable();
+        long from = openCheckpoint(hitlistPath);
+
+        // Built back to front, since each stage hands its output to the next.
+        PipelineStage<Candidate> persist = new PipelineStage<>("persist", capacity,
+                parallelism("persist", 2), true, this::persist, this::candidateFailed);
+        PipelineStage<Candidate> cluster = new PipelineStage<>("cluster", capacity,
+                parallelism("cluster", cpus), false, candidate -> {
+                    candidate.best = CoordinateFilter.clusterAndSelect(candidate.hits, 1.0, 2);
+                    LOOKUP_LATENCY.recordSince(candidate.startNanos);
+                    if (candidate.best != null) {
+                        persist.put(candidate);
+                    } else {
+                        macResolved(candidate, MAC_NO_LANDMARK);
+                    }
+                }, this::candidateFailed);
+        PipelineStage<Candidate> probe = new PipelineStage<>("probe", capacity,
+                parallelism("probe", MAX_IN_FLIGHT_LOOKUPS), true, candidate -> {
+                    candidate.startNanos = System.nanoTime();
+                    try {
+                        candidate.hits = locationFinder.probe(candidate.mac).join();
+                    } catch (CompletionException e) {
+                        LOOKUP_ERRORS.inc();
+                        // Over quota is logged once by the LocationFinder, not for every MAC.
+                        if (!(e.getCause() instanceof WigleRequestScheduler.QuotaExhaustedException)) {
+                            System.out.println("Lookup failed for WAN MAC " + MacUtils.longToMacString(candidate.mac)
+                                    + ": " + e.getCause());
+                        }
+                        macResolved(candidate, MAC_FAILED);
+                        return;
+                    }
+                    cluster.put(candidate);
+                }, this::candidateFailed);
+        PipelineStage<Candidate> rotation = new PipelineStage<>("rotation", capacity,
+                parallelism("rotation", cpus), false, candidate -> {
+                    // Already a landmark under this IID: the UpdateService handles any rotation.
+                    if (updateService.checkForPrefixRotation(candidate.address)) {
+                        KNOWN_IIDS.inc();
+                        itemFinished(candidate);
+                        return;
+                    }
+                    candidate.mac = MacUtils.macFromIid(Ipv6Bytes.interfaceId(candidate.address));
+                    if (claimMac(candidate)) {
+                        probe.put(candidate);
+                    }
+                }, this::candidateFailed);
+        List<PipelineStage<?>> stages = List.of(rotation, probe, cluster, persist);
+        stages.forEach(PipelineStage::start);
+        if (checkpoint != null) {
+            long interval = Long.getLong("import.checkpoint.interval.s", DEFAULT_CHECKPOINT_INTERVAL_SECONDS);
+            checkpoint.start(TimeUnit.SECONDS.toMillis(interval), this::makeDurable);
+        }
+
+        boolean complete = false;
         try {
-            MongoCollection<Document> landmarks = DatabaseManager.getLandmarksCollection();
-
-            // We use the IP address as the unique ID (_id) to prevent duplicates
-            Document landmarkDoc = new Document("_id", ip)
-                    .append("interface_id", iid)
-                    .append("wan_mac", MacUtils.bytesToMacString(mac))
-                    .append("latitude", hit.latitude)
-                    .append("longitude", hit.longitude)
-                    .append("source_offset", hit.offset)
-                    .append("is_reliable", false) // Default to false
-                    .append("is_dynamic", false) // Default to false
-                    .append("created_at", new java.util.Date());
-                    // last_updated will be set by the UpdateService
-
-            // This command will insert the doc IF the _id doesn't exist.
-            // If it does exist, it does nothing.
-            landmarks.insertOne(landmarkDoc);
-            
-        } catch (com.mongodb.MongoWriteException e) {
-            // This catches a duplicate key error, which we can safely ignore.
-            if (e.getError().getCategory() != com.mongodb.ErrorCategory.DUPLICATE_KEY) {
-                e.printStackTrace();
-            }
-        } catch (Exception e) {
+            // Read and EUI-64 filtering stay fused in the scanner, which parses lines without allocating.
+            HitlistScanner.Stats stats = scanner.scan(hitlistPath, from, new HitlistScanner.ChunkedSink() {
+                @Override
+                public void accept(byte[] address, long chunk) {
+                    if (checkpoint != null) checkpoint.itemStarted(chunk);
+                    rotation.put(new Candidate(address, chunk));
+                }
+
+                @Override
+                public void chunkScanned(long chunk) {
+                    if (checkpoint != null) checkpoint.chunkScanned(chunk);
+                }
+            });
+            System.out.println("Import scan finished: " + stats);
+            complete = true;
+        } catch (IOException e) {
+            System.out.println("Failed to import hitlist " + hitlistPath + ": " + e.getMessage());
             e.printStackTrace();
         }
-    }
\ No newline at end of file
+
+        // Drain front to back: a stage is done once its upstream is done and its queue is empty.
+        for (PipelineStage<?> stage : stages) {
+            stage.finishInput();
+            stage.awaitDone();
+        }
+        boolean written = landmarkWriter.flush();
+        locationFinder.flush();
+        if (!written) {
+            System.out.println("Some landmarks could not be written; keeping the last good checkpoint.");
+        }
+        closeCheckpoint(complete && written);
+
+        System.out.println("Import finished:");
+        stages.forEach(stage -> System.out.println("  " + stage));
+        System.out.println("Landmarks: " + landmarkWriter);
+        System.out.println("Lookup latency: " + LOOKUP_LATENCY);
+        System.out.println("WAN MACs: " + macs);
+        macs.release();
+        macs = null;
+    }
+
+    private void persist(Candidate candidate) {
+        saveCandidateLandmark(candidate.address, candidate.mac, candidate.best);
+        macResolved(candidate, MAC_LANDMARK);
+    }
+
+    /**
+     * A stage failed on the candidate (or dropped it): resolves it as failed,
+     * without journalling its MAC, so its chunk can still be checkpointed.
+     */
+    private void candidateFailed(Candidate candidate, Exception error) {
+        FAILED_ITEMS.inc();
+        if (candidate.claimed) {
+            macResolved(candidate, MAC_FAILED);
+        } else {
+            itemFinished(candidate);
+        }
+    }
+
+    // --- Checkpoints ---
+
+    /**
+     * Opens the checkpoint for this file, restoring the MACs of an
+     * interrupted import.
+     *
+     * @return the offset to scan from.
+     */
+    private long openCheckpoint(Path hitlistPath) {
+        checkpoint = null;
+        if (!Boolean.parseBoolean(System.getProperty("import.checkpoint", "true"))) return 0;
+        try {
+            checkpoint = new ImportCheckpoint(hitlistPath, scanner.chunkSize(),
+                    ImportCheckpoint.DEFAULT_CHECKPOINT_FILE, ImportCheckpoint.DEFAULT_JOURNAL_FILE);
+            if (checkpoint.resumeOffset() > 0) {
+                long restored = checkpoint.restoreMacs(macs);
+                System.out.printf("Resuming import at byte %,d with %,d WAN MACs already resolved%n",
+                        checkpoint.resumeOffset(), restored);
+            }
+            return checkpoint.resumeOffset();
+        } catch (IOException e) {
+            System.out.println("Import checkpoint unavailable, importing from the start: " + e.getMessage());
+            if (checkpoint != null) {
+                try {
+                    checkpoint.close();
+                } catch (IOException ignored) {
+                    // Already failing; nothing more to do with it.
+                }
+                checkpoint = null;
+            }
+            macs.clear(); // drop whatever was restored before the failure
+            return 0;
+        }
+    }
+
+    /**
+     * Writes everything the addresses resolved so far produced: the writer's
+     * partial batch and the prefix rotations they observed.
+     *
+     * @return false if some of it couldn't be written.
+     */
+    private boolean makeDurable() {
+        boolean durable = landmarkWriter.flush();
+        if (updateService.isStarted()) {
+            durable &= updateService.flushRotations();
+        }
+        return durable;
+    }
+
+    /** Deletes the checkpoint after a complete import, or leaves a final one to resume from. */
+    private void closeCheckpoint(boolean complete) {
+        if (checkpoint == null) return;
+        try {
+            if (complete) {
+                checkpoint.finish();
+            } else {
+                checkpoint.commit(this::makeDurable);
+                checkpoint.close();
+                System.out.println("Import can be resumed: " + checkpoint);
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to close import checkpoint: " + e.getMessage());
+        }
+        checkpoint = null;
+    }
+
+    private void itemFinished(Candidate candidate) {
+        // Once only, even if a stage fails after the candidate was resolved.
+        if (candidate.finished) return;
+        candidate.finished = true;
+        if (checkpoint != null) checkpoint.itemFinished(candidate.chunk);
+    }
+
+    // --- Per-run MAC deduplication ---
+
+    /**
+     * Records a sighting of the candidate's MAC.
+     *
+     * @return true if it is the first one in this import (or the first since
+     *         its lookup failed, or the table is full), so the address must be
+     *         probed; otherwise the address is handled with the first
+     *         sighting's result, now or once it is known.
+     */
+    private boolean claimMac(Candidate candidate) {
+        long mac = candidate.mac;
+        int state = macs.putIfAbsent(mac, MAC_IN_FLIGHT);
+        if (state == MacDedupTable.ABSENT
+                || state == MAC_FAILED && macs.replace(mac, MAC_FAILED, MAC_IN_FLIGHT)) {
+            candidate.claimed = true;
+            return true;
+        }
+        if (state == MacDedupTable.FULL) {
+            DEDUP_TABLE_FULL.inc();
+            return true;
+        }
+        if (state == MAC_IN_FLIGHT || state == MAC_FAILED) {
+            synchronized (waitingForMac) {
+                // Re-read under the lock macResolved() takes, so the result can't slip past us.
+                state = macs.get(mac);
+                if (state == MAC_IN_FLIGHT) {
+                    waitingForMac.computeIfAbsent(mac, k -> new ArrayList<>()).add(candidate);
+                    DUPLICATES_WAITED.inc();
+                    return false;
+                }
+            }
+        }
+        reuseResult(candidate, state);
+        return false;
+    }
+
+    /** The first sighting of a MAC is done; hands its result to the addresses waiting for it. */
+    private void macResolved(Candidate candidate, int state) {
+        long mac = candidate.mac;
+        List<Candidate> waiting;
+        synchronized (waitingForMac) {
+            // Journalled only if it is in the table (not when the table was full), and not if it failed.
+            if (macs.replace(mac, MAC_IN_FLIGHT, state) && state != MAC_FAILED && checkpoint != null) {
+                checkpoint.macResolved(mac, state);
+            }
+            waiting = waitingForMac.remove(mac);
+        }
+        itemFinished(candidate);
+        if (waiting != null) {
+            for (Candidate duplicate : waiting) {
+                try {
+                    reuseResult(duplicate, state);
+                } catch (RuntimeException e) {
+                    FAILED_ITEMS.inc();
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void reuseResult(Candidate candidate, int state) {
+        try {
+            if (state == MAC_LANDMARK) {
+                // The IID is tracked once the landmark's insert lands (within the writer's max delay),
+                // so this is a sighting under another prefix; one that arrives before the insert isn't counted.
+                DUPLICATES_LANDMARK.inc();
+                updateService.checkForPrefixRotation(candidate.address);
+            } else if (state == MAC_FAILED) {
+                DUPLICATES_FAILED.inc();
+            } else {
+                DUPLICATES_NO_LANDMARK.inc();
+            }
+        } finally {
+            itemFinished(candidate);
+        }
+    }
+
+    private static MacDedupTable newDedupTable() {
+        long initialMacs = Long.getLong("import.dedup.expected.macs", INITIAL_DEDUP_MACS);
+        Long maxMiB = Long.getLong("import.dedup.max.mb");
+        // A third of the limit: growing to that briefly needs half of it for the old and new table.
+        long maxBytes = maxMiB != null ? maxMiB << 20 : maxDirectMemory() / 3;
+        return new MacDedupTable(initialMacs, maxBytes);
+    }
+
+    /** -XX:MaxDirectMemorySize, or the heap limit it defaults to. */
+    private static long maxDirectMemory() {
+        try {
+            String value = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class)
+                    .getVMOption("MaxDirectMemorySize").getValue();
+            long configured = Long.parseLong(value);
+            if (configured > 0) return configured;
+        } catch (RuntimeException e) {
+            // Not a HotSpot JVM: assume the default.
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    private static int parallelism(String stage, int defaultValue) {
+        return Math.max(1, Integer.getInteger("import." + stage + ".parallelism", defaultValue));
+    }
+
+    /**
+     * Queues the candidate landmark for the next bulk insert.
+     * Duplicates are skipped by MongoDB and counted by the LandmarkWriter.
+     */
+    private void saveCandidateLandmark(byte[] address, long mac, LocationFinder.LocationHit hit) {
+
+        // We use the IP address as the unique ID (_id) to prevent duplicates
+        Document landmarkDoc = new Document("_id", Ipv6Bytes.format(address))
+                .append("interface_id", Ipv6Bytes.hex64(Ipv6Bytes.interfaceId(address)))
+                .append("wan_mac", MacUtils.longToMacString(mac))
+                .append("latitude", hit.latitude)
+                .append("longitude", hit.longitude)
+                .append("source_offset", hit.offset)
+                .append("is_reliable", false) // Default to false
+                .append("is_dynamic", false) // Default to false
+                .append("created_at", new java.util.Date());
+                // last_updated will be set by the UpdateService
+        Document location = SchemaManager.geoJsonPoint(hit.latitude, hit.longitude);
+        if (location != null) {
+            landmarkDoc.append(SchemaManager.LOCATION_FIELD, location);
+        }
+
+        landmarkWriter.add(landmarkDoc);
+        SAVES.inc();
+    }
+}
\ No newline at end of file
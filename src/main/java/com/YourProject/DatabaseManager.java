@@ -1,6 +1,8 @@
 package com.yourproject;
 
+import com.google.gson.stream.JsonWriter;
 import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
@@ -10,9 +12,13 @@ import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Sorts;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -31,8 +37,27 @@ public class DatabaseManager {
     private static MongoClient mongoClient;
     private static MongoDatabase database;
 
+    // --- Query timings (GET /api/metrics) ---
+    private static final String QUERY_TIME = "lanmarker_db_query_seconds";
+    private static final String QUERY_TIME_HELP = "MongoDB query time for the API endpoints";
+    private static final LatencyHistogram RELIABLE_LANDMARKS_TIME =
+            Metrics.histogram(QUERY_TIME, QUERY_TIME_HELP, "query", "reliable_landmarks");
+    private static final LatencyHistogram TOP_COUNTRIES_TIME =
+            Metrics.histogram(QUERY_TIME, QUERY_TIME_HELP, "query", "top_countries");
+    private static final LatencyHistogram TOP_AS_TIME =
+            Metrics.histogram(QUERY_TIME, QUERY_TIME_HELP, "query", "top_as");
+    private static final LatencyHistogram LANDMARKS_IN_VIEW_TIME =
+            Metrics.histogram(QUERY_TIME, QUERY_TIME_HELP, "query", "landmarks_in_view");
+
+    // --- Viewport paging for the map ---
+    public static final int DEFAULT_PAGE_SIZE = 5_000;
+    public static final int MAX_PAGE_SIZE = 50_000;
+    private static final int CURSOR_BATCH_SIZE = 1_000;
+    // The key order of SchemaManager's reliable_lat_lon_id index after is_reliable.
+    static final Bson VIEW_ORDER = Sorts.ascending("latitude", "longitude", "_id");
+
     /**
-     * Initializes the connection to the MongoDB server.
+     * Initializes the connection to the MongoDB server and sets up the indexes.
      */
     public static void initializeDatabase() {
         try {
@@ -41,6 +66,7 @@ public class DatabaseManager {
             // Test connection
             database.runCommand(new Document("ping", 1));
             System.out.println("MongoDB Database connected successfully.");
+            SchemaManager.ensureSchema(database);
         } catch (Exception e) {
             System.out.println("Failed to connect to MongoDB. Is it running?");
             e.printStackTrace();
@@ -61,42 +87,172 @@ public class DatabaseManager {
         return database.getCollection("bssid_cache");
     }
     
+    /**
+     * The address a landmark answers on now: current_ip once its prefix has
+     * rotated (the _id keeps the address it was found with), else the _id.
+     */
+    public static String currentIp(Document landmark) {
+        String currentIp = landmark.getString("current_ip");
+        if (currentIp != null) return currentIp;
+        Object id = landmark.get("_id");
+        return id == null ? null : id.toString();
+    }
+
     // --- API Methods ---
 
     /**
      * Fetches reliable landmarks to be displayed on the frontend map.
+     * Each one has its current address as "ip".
      */
     public static List<Map<String, Object>> getReliableLandmarksForMap() {
         List<Map<String, Object>> landmarks = new ArrayList<>();
+        long start = System.nanoTime();
         
         // Find landmarks where is_reliable = true
         getLandmarksCollection().find(Filters.eq("is_reliable", true))
-            .forEach(doc -> landmarks.add(doc)); // 'doc' is already a Map-like object
+            .forEach(doc -> landmarks.add(doc.append("ip", currentIp(doc)))); // 'doc' is already a Map-like object
             
+        RELIABLE_LANDMARKS_TIME.recordSince(start);
         return landmarks;
     }
 
+    /**
+     * Streams one page of reliable landmarks inside a bounding box as JSON:
+     * {"landmarks":[{"ip","lat","lng","city","updated"},...],"next":cursor|null},
+     * where "ip" is the landmark's current address.
+     *
+     * Only the map's fields are fetched, documents are read from the Mongo
+     * cursor in batches and written straight to {@code out}, so memory use
+     * doesn't depend on the page size. Pages follow the order of the
+     * reliable_lat_lon_id index (latitude, longitude, _id), so a page is read
+     * straight off the index without sorting the whole box; pass the returned
+     * "next" (the last landmark's "lat,lon,_id") as {@code cursor} to get the
+     * following page.
+     * Coordinates are rounded to what is visible at {@code zoom}.
+     * A box with minLon > maxLon crosses the antimeridian.
+     */
+    public static void streamReliableLandmarksInView(double minLat, double minLon, double maxLat, double maxLon,
+                                                     int zoom, String cursor, int pageSize, Writer out)
+            throws IOException {
+        long start = System.nanoTime();
+        Object[] after = cursor == null ? null : parseViewCursor(cursor);
+        List<Bson> filters = new ArrayList<>();
+        filters.add(Filters.eq("is_reliable", true));
+        filters.add(Filters.gte("latitude", minLat));
+        filters.add(Filters.lte("latitude", maxLat));
+        if (minLon <= maxLon) {
+            filters.add(Filters.gte("longitude", minLon));
+            filters.add(Filters.lte("longitude", maxLon));
+        } else {
+            filters.add(Filters.or(Filters.gte("longitude", minLon), Filters.lte("longitude", maxLon)));
+        }
+        if (after != null) {
+            // Keyset: everything after (lat, lon, _id) in index order.
+            double lat = (Double) after[0];
+            double lon = (Double) after[1];
+            filters.add(Filters.gte("latitude", lat));
+            filters.add(Filters.or(
+                    Filters.gt("latitude", lat),
+                    Filters.and(Filters.eq("latitude", lat), Filters.gt("longitude", lon)),
+                    Filters.and(Filters.eq("latitude", lat), Filters.eq("longitude", lon),
+                            Filters.gt("_id", after[2]))));
+        }
+
+        // A pixel at zoom z spans 360 / (256 * 2^z) degrees; one more digit than that is plenty.
+        double scale = Math.pow(10, Math.max(1, Math.min(7,
+                (int) Math.ceil(Math.log10(256 * Math.pow(2, zoom) / 360)) + 1)));
+
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject().name("landmarks").beginArray();
+        String next = null;
+        int written = 0;
+        try (MongoCursor<Document> results = getLandmarksCollection()
+                .find(Filters.and(filters))
+                .projection(Projections.include("current_ip", "latitude", "longitude", "city", "last_updated", "created_at"))
+                .sort(VIEW_ORDER)
+                .limit(pageSize)
+                .batchSize(CURSOR_BATCH_SIZE)
+                .iterator()) {
+            while (results.hasNext()) {
+                Document doc = results.next();
+                Number lat = (Number) doc.get("latitude");
+                Number lon = (Number) doc.get("longitude");
+                written++;
+                // The range filters only match numeric coordinates.
+                next = lat.doubleValue() + "," + lon.doubleValue() + "," + doc.get("_id");
+
+                Date updated = doc.getDate("last_updated") != null ? doc.getDate("last_updated")
+                        : doc.getDate("created_at");
+                json.beginObject()
+                        .name("ip").value(currentIp(doc))
+                        .name("lat").value(Math.round(lat.doubleValue() * scale) / scale)
+                        .name("lng").value(Math.round(lon.doubleValue() * scale) / scale);
+                if (doc.getString("city") != null) {
+                    json.name("city").value(doc.getString("city"));
+                }
+                if (updated != null) {
+                    json.name("updated").value(updated.getTime());
+                }
+                json.endObject();
+            }
+        }
+        json.endArray();
+        // A short page is the last one.
+        json.name("next").value(written == pageSize ? next : null);
+        json.endObject();
+        json.flush();
+        LANDMARKS_IN_VIEW_TIME.recordSince(start);
+    }
+
+    /**
+     * Parses a "lat,lon,_id" page cursor.
+     *
+     * @throws IllegalArgumentException if it isn't one.
+     */
+    static Object[] parseViewCursor(String cursor) {
+        String[] parts = cursor.split(",", 3);
+        if (parts.length != 3 || parts[2].isEmpty()) {
+            throw new IllegalArgumentException("cursor must be the \"next\" value of the previous page");
+        }
+        try {
+            return new Object[] {Double.parseDouble(parts[0]), Double.parseDouble(parts[1]), parts[2]};
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("cursor must be the \"next\" value of the previous page");
+        }
+    }
+
     /**
      * Fetches the Top 10 countries based on landmark count.
-     * This uses the MongoDB Aggregation Pipeline (the NoSQL version of GROUP BY).
      */
     public static List<Map<String, Object>> getTopCountries() {
+        return getCountryCounts(10);
+    }
+
+    /**
+     * Landmark count per country, largest first, as {name, count}.
+     * This uses the MongoDB Aggregation Pipeline (the NoSQL version of GROUP BY).
+     *
+     * @param limit how many countries to return, or 0 for all of them.
+     */
+    public static List<Map<String, Object>> getCountryCounts(int limit) {
         List<Map<String, Object>> results = new ArrayList<>();
+        long start = System.nanoTime();
 
-        getLandmarksCollection().aggregate(
-            Arrays.asList(
+        List<Bson> pipeline = new ArrayList<>(Arrays.asList(
                 Aggregates.match(Filters.exists("country")), // Only documents with a country
                 Aggregates.group("$country", Accumulators.sum("count", 1)),
-                Aggregates.sort(Sorts.descending("count")),
-                Aggregates.limit(10),
-                Aggregates.project(Projections.fields( // Re-shape the output
-                    Projections.excludeId(),
-                    Projections.computed("name", "$_id"),
-                    Projections.include("count")
-                ))
-            )
-        ).forEach(doc -> results.add(doc));
+                Aggregates.sort(Sorts.descending("count"))));
+        if (limit > 0) {
+            pipeline.add(Aggregates.limit(limit));
+        }
+        pipeline.add(Aggregates.project(Projections.fields( // Re-shape the output
+                Projections.excludeId(),
+                Projections.computed("name", "$_id"),
+                Projections.include("count")
+        )));
+        getLandmarksCollection().aggregate(pipeline).forEach(doc -> results.add(doc));
         
+        TOP_COUNTRIES_TIME.recordSince(start);
         return results;
     }
 
@@ -104,24 +260,35 @@ public class DatabaseManager {
      * Fetches the Top 10 Autonomous Systems (AS) based on landmark count.
      */
     public static List<Map<String, Object>> getTopAutonomousSystems() {
+        return getAutonomousSystemCounts(10);
+    }
+
+    /**
+     * Landmark count per AS, largest first, as {name, asn, count}.
+     *
+     * @param limit how many ASes to return, or 0 for all of them.
+     */
+    public static List<Map<String, Object>> getAutonomousSystemCounts(int limit) {
         List<Map<String, Object>> results = new ArrayList<>();
+        long start = System.nanoTime();
         
-        getLandmarksCollection().aggregate(
-            Arrays.asList(
+        List<Bson> pipeline = new ArrayList<>(Arrays.asList(
                 Aggregates.match(Filters.exists("as_name")),
                 Aggregates.group(new Document("name", "$as_name").append("asn", "$asn"), // Group by two fields
                     Accumulators.sum("count", 1)),
-                Aggregates.sort(Sorts.descending("count")),
-                Aggregates.limit(10),
-                Aggregates.project(Projections.fields(
-                    Projections.excludeId(),
-                    Projections.computed("name", "$_id.name"),
-                    Projections.computed("asn", "$_id.asn"),
-                    Projections.include("count")
-                ))
-            )
-        ).forEach(doc -> results.add(doc));
+                Aggregates.sort(Sorts.descending("count"))));
+        if (limit > 0) {
+            pipeline.add(Aggregates.limit(limit));
+        }
+        pipeline.add(Aggregates.project(Projections.fields(
+                Projections.excludeId(),
+                Projections.computed("name", "$_id.name"),
+                Projections.computed("asn", "$_id.asn"),
+                Projections.include("count")
+        )));
+        getLandmarksCollection().aggregate(pipeline).forEach(doc -> results.add(doc));
 
+        TOP_AS_TIME.recordSince(start);
         return results;
     }
 }
\ No newline at end of file
@@ -0,0 +1,237 @@
+package com.yourproject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for WiGLE's {@code api/v2/network/detail}, for load tests
+ * that must not spend quota or need network access.
+ *
+ * Whether a BSSID is a hit is a fixed function of the BSSID, so repeated runs
+ * see the same data. BSSIDs that share all but the last byte belong to one
+ * "router" and resolve to the same place (with ~50 m of jitter), so the
+ * offsets around a WAN MAC form the clusters CoordinateFilter looks for.
+ *
+ * Configurable, also while running:
+ * - latency: log-normal with a given median and p99 (equal values = fixed);
+ * - hit percentage;
+ * - 429 bursts: every {@code throttleEveryMillis}, all requests get a 429
+ *   with Retry-After for {@code throttleBurstMillis};
+ * - failure percentage: random 500s.
+ *
+ * Run standalone with {@code java com.yourproject.FakeWigleServer [port]};
+ * the -Dfakewigle.* properties in {@link #fromSystemProperties} apply.
+ */
+public class FakeWigleServer implements AutoCloseable {
+
+    public static final String PATH = "/api/v2/network/detail";
+
+    // z-score of the 99th percentile of a standard normal.
+    private static final double Z_99 = 2.3263;
+
+    private final HttpServer server;
+    private final ExecutorService threads;
+    private final long startNanos = System.nanoTime();
+
+    // --- Behaviour ---
+    private volatile double hitPercent = 40;
+    private volatile double medianLatencyMillis = 0;
+    private volatile double latencySigma = 0;
+    private volatile double failurePercent = 0;
+    private volatile long throttleEveryMillis = 0; // 0 = never
+    private volatile long throttleBurstMillis = 0;
+    private volatile int retryAfterSeconds = 1;
+
+    // --- Metrics ---
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Starts the server on 127.0.0.1:{@code port} (0 picks a free port).
+     *
+     * @param handlerThreads requests served concurrently, each sleeping out its latency.
+     */
+    public FakeWigleServer(int port, int handlerThreads) throws IOException {
+        // Read once when the JDK server first starts: without it every response waits
+        // out Nagle + delayed ACK (~40 ms), which would swamp the configured latency.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        this.threads = Executors.newFixedThreadPool(handlerThreads, r -> {
+            Thread t = new Thread(r, "fake-wigle");
+            t.setDaemon(true);
+            return t;
+        });
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        this.server.createContext(PATH, this::respond);
+        this.server.setExecutor(threads);
+        this.server.start();
+    }
+
+    /**
+     * Builds a server from -Dfakewigle.* properties:
+     * port (0), threads (64), hit.percent (40), latency.median.ms (80),
+     * latency.p99.ms (400), failure.percent (0), throttle.every.ms (0 = off),
+     * throttle.burst.ms (1000), throttle.retry.after.s (1).
+     */
+    public static FakeWigleServer fromSystemProperties() throws IOException {
+        FakeWigleServer server = new FakeWigleServer(
+                Integer.getInteger("fakewigle.port", 0), Integer.getInteger("fakewigle.threads", 64));
+        server.setHitPercent(doubleProperty("fakewigle.hit.percent", 40));
+        server.setLatency(doubleProperty("fakewigle.latency.median.ms", 80),
+                doubleProperty("fakewigle.latency.p99.ms", 400));
+        server.setFailurePercent(doubleProperty("fakewigle.failure.percent", 0));
+        server.setThrottleBursts(Long.getLong("fakewigle.throttle.every.ms", 0),
+                Long.getLong("fakewigle.throttle.burst.ms", 1000),
+                Integer.getInteger("fakewigle.throttle.retry.after.s", 1));
+        return server;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            System.setProperty("fakewigle.port", args[0]);
+        }
+        FakeWigleServer server = fromSystemProperties();
+        System.out.println("Fake WiGLE listening on " + server.url());
+        System.out.println("Point LANMARKER at it with -Dwigle.api.url=" + server.url());
+        // The server's dispatcher thread keeps the JVM alive until Ctrl+C.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println("Fake WiGLE: " + server)));
+    }
+
+    /** The endpoint URL to pass as -Dwigle.api.url or to LocationFinder. */
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PATH;
+    }
+
+    public void setHitPercent(double hitPercent) {
+        this.hitPercent = hitPercent;
+    }
+
+    /**
+     * Log-normal latency with the given median and 99th percentile, in milliseconds.
+     */
+    public void setLatency(double medianMillis, double p99Millis) {
+        this.medianLatencyMillis = medianMillis;
+        this.latencySigma = medianMillis > 0 && p99Millis > medianMillis
+                ? Math.log(p99Millis / medianMillis) / Z_99 : 0;
+    }
+
+    public void setFailurePercent(double failurePercent) {
+        this.failurePercent = failurePercent;
+    }
+
+    /**
+     * Every {@code everyMillis}, answer 429 to everything for {@code burstMillis}.
+     * {@code everyMillis = 0} turns bursts off.
+     */
+    public void setThrottleBursts(long everyMillis, long burstMillis, int retryAfterSeconds) {
+        this.throttleBurstMillis = burstMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.throttleEveryMillis = everyMillis;
+    }
+
+    public long requestCount() { return requests.sum(); }
+    public long hitCount() { return hits.sum(); }
+    public long missCount() { return misses.sum(); }
+    public long throttledCount() { return throttled.sum(); }
+    public long failedCount() { return failed.sum(); }
+
+    @Override
+    public String toString() {
+        return String.format("%,d requests: %,d hits, %,d misses, %,d throttled (429), %,d failed (500)",
+                requestCount(), hitCount(), missCount(), throttledCount(), failedCount());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        threads.shutdownNow();
+    }
+
+    // --- Request handling ---
+
+    private void respond(HttpExchange exchange) throws IOException {
+        requests.increment();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        sleep(random);
+
+        if (inThrottleBurst()) {
+            throttled.increment();
+            exchange.getResponseHeaders().set("Retry-After", Integer.toString(retryAfterSeconds));
+            send(exchange, 429, "{\"success\":false,\"message\":\"too many queries\"}");
+            return;
+        }
+        if (random.nextDouble() * 100 < failurePercent) {
+            failed.increment();
+            send(exchange, 500, "{\"success\":false,\"message\":\"internal error\"}");
+            return;
+        }
+
+        String query = exchange.getRequestURI().getRawQuery();
+        long bssid;
+        try {
+            bssid = Long.parseLong(query.substring(query.indexOf("netid=") + 6), 16);
+        } catch (RuntimeException e) {
+            send(exchange, 400, "{\"success\":false,\"message\":\"bad netid\"}");
+            return;
+        }
+
+        long hash = LongLongHashMap.mix(bssid);
+        if (Math.floorMod(hash, 10_000) < hitPercent * 100) {
+            hits.increment();
+            long site = LongLongHashMap.mix(bssid >>> 8);
+            double lat = 35 + Math.floorMod(site, 2000) / 100.0 + ((hash >>> 20) & 0xFF) / 255.0 * 0.0005;
+            double lon = -10 + Math.floorMod(site >>> 16, 4000) / 100.0 + ((hash >>> 28) & 0xFF) / 255.0 * 0.0005;
+            send(exchange, 200, "{\"success\":true,\"results\":{\"trilat\":" + lat + ",\"trilong\":" + lon + "}}");
+        } else {
+            misses.increment();
+            send(exchange, 200, "{\"success\":true,\"results\":{}}");
+        }
+    }
+
+    private void sleep(ThreadLocalRandom random) {
+        double median = medianLatencyMillis;
+        if (median <= 0) return;
+        double millis = median * Math.exp(latencySigma * random.nextGaussian());
+        try {
+            TimeUnit.MICROSECONDS.sleep((long) (millis * 1000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean inThrottleBurst() {
+        long every = throttleEveryMillis;
+        if (every <= 0) return false;
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        // The first burst starts one period in, not at startup.
+        return elapsed >= every && elapsed % every < throttleBurstMillis;
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+}
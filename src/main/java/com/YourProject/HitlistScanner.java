@@ -0,0 +1,219 @@
+package com.yourproject;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memory-mapped, parallel hitlist reader.
+ *
+ * The file is split into fixed-size chunks which worker threads map one at a
+ * time. A line belongs to the chunk it starts in, so every worker skips the
+ * partial line at its chunk start and reads past its chunk end to finish the
+ * last line. Each line is parsed straight into a reused 16-byte array and only
+ * EUI-64 addresses are copied and handed to the sink; everything else is
+ * dropped without allocating. Only one chunk per worker is mapped at a time,
+ * so memory stays bounded regardless of the file size.
+ */
+public class HitlistScanner {
+
+    /** Receives each EUI-64 address as its own 16-byte copy. Called concurrently. */
+    public interface AddressSink {
+        void accept(byte[] address);
+    }
+
+    /**
+     * An AddressSink that is also told which chunk each address came from,
+     * and when a chunk has been read completely (after its last address).
+     * Chunk n covers bytes [from + n * chunkSize, from + (n + 1) * chunkSize).
+     */
+    public interface ChunkedSink {
+        void accept(byte[] address, long chunk);
+
+        void chunkScanned(long chunk);
+    }
+
+    public static final int DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024;
+
+    // Hitlist lines are < 50 bytes; anything longer than this is treated as malformed.
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final long REPORT_INTERVAL_SECONDS = 10;
+
+    // Added once per chunk, so they lag by at most one chunk per worker.
+    private static final Metrics.Counter LINES = Metrics.counter(
+            "lanmarker_import_lines_total", "Hitlist lines read");
+    private static final Metrics.Counter EUI64 = Metrics.counter(
+            "lanmarker_import_eui64_total", "Hitlist addresses with an EUI-64 interface ID");
+    private static final Metrics.Counter MALFORMED = Metrics.counter(
+            "lanmarker_import_malformed_total", "Hitlist lines that are not an IPv6 address");
+
+    private final int threads;
+    private final int chunkSize;
+
+    /**
+     * Totals for one scan. Counters are updated while the scan runs.
+     */
+    public static class Stats {
+        final LongAdder lines = new LongAdder();
+        final LongAdder eui64 = new LongAdder();
+        final LongAdder malformed = new LongAdder();
+        final long startNanos = System.nanoTime();
+        volatile long endNanos;
+
+        public long lines() { return lines.sum(); }
+        public long eui64Addresses() { return eui64.sum(); }
+        public long malformedLines() { return malformed.sum(); }
+
+        public double elapsedSeconds() {
+            long end = endNanos != 0 ? endNanos : System.nanoTime();
+            return (end - startNanos) / 1e9;
+        }
+
+        public double linesPerSecond() {
+            double secs = elapsedSeconds();
+            return secs > 0 ? lines() / secs : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d lines (%,d EUI-64, %,d malformed) in %.1fs = %,.0f lines/sec",
+                    lines(), eui64Addresses(), malformedLines(), elapsedSeconds(), linesPerSecond());
+        }
+    }
+
+    public HitlistScanner() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public HitlistScanner(int threads, int chunkSize) {
+        if (threads < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("threads and chunkSize must be positive");
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Scans the whole file, blocking until every chunk has been processed.
+     */
+    public Stats scan(Path file, AddressSink sink) throws IOException {
+        return scan(file, 0, new ChunkedSink() {
+            @Override
+            public void accept(byte[] address, long chunk) {
+                sink.accept(address);
+            }
+
+            @Override
+            public void chunkScanned(long chunk) {
+            }
+        });
+    }
+
+    /**
+     * Scans the file from byte {@code from}, which must be 0 or a chunk
+     * boundary of an earlier scan with the same chunk size (a line that
+     * straddles it belongs to the chunk before and is skipped).
+     */
+    public Stats scan(Path file, long from, ChunkedSink sink) throws IOException {
+        Stats stats = new Stats();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            AtomicLong nextChunk = new AtomicLong();
+
+            reporter.scheduleAtFixedRate(
+                    () -> System.out.println("Hitlist scan progress: " + stats),
+                    REPORT_INTERVAL_SECONDS, REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(workers.submit(() -> {
+                    byte[] scratch = new byte[MacUtils.IPV6_BYTE_LENGTH];
+                    long chunk;
+                    long start;
+                    while ((start = from + (chunk = nextChunk.getAndIncrement()) * chunkSize) < size) {
+                        scanChunk(channel, size, start, Math.min(size, start + chunkSize), scratch, sink, chunk, stats);
+                        sink.chunkScanned(chunk);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Hitlist scan interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Hitlist scan failed", e.getCause());
+        } finally {
+            stats.endNanos = System.nanoTime();
+            reporter.shutdownNow();
+            workers.shutdownNow();
+        }
+        return stats;
+    }
+
+    private void scanChunk(FileChannel channel, long size, long start, long end,
+                           byte[] scratch, ChunkedSink sink, long chunk, Stats stats) throws IOException {
+        // Map one byte before the chunk (to see if we start on a line boundary)
+        // and enough after it to finish the last line.
+        long mapStart = start == 0 ? 0 : start - 1;
+        long mapEnd = Math.min(size, end + MAX_LINE_LENGTH);
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+
+        int limit = buf.limit();
+        int chunkEnd = (int) (end - mapStart);
+        int pos = 0;
+        if (start != 0) {
+            // Skip forward to the first line that starts inside this chunk.
+            while (pos < limit && buf.get(pos) != '\n') pos++;
+            pos++;
+        }
+
+        long lines = 0, eui64 = 0, malformed = 0;
+        while (pos < chunkEnd) {
+            int lineEnd = pos;
+            while (lineEnd < limit && buf.get(lineEnd) != '\n') lineEnd++;
+            if (lineEnd == limit && mapEnd < size) {
+                malformed++; // line longer than MAX_LINE_LENGTH
+                break;
+            }
+            lines++;
+            if (buf.get(pos) != '#' && lineEnd > pos) {
+                if (!Ipv6Bytes.parse(buf, pos, lineEnd, scratch)) {
+                    malformed++;
+                } else if (MacUtils.isEui64Address(scratch)) {
+                    eui64++;
+                    sink.accept(scratch.clone(), chunk);
+                }
+            }
+            pos = lineEnd + 1;
+        }
+
+        stats.lines.add(lines);
+        stats.eui64.add(eui64);
+        stats.malformed.add(malformed);
+        LINES.add(lines);
+        EUI64.add(eui64);
+        MALFORMED.add(malformed);
+    }
+}
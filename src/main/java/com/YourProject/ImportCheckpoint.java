@@ -0,0 +1,287 @@
+package com.yourproject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Checkpoints a hitlist import so a restarted import resumes where the last
+ * one stopped.
+ *
+ * Progress is tracked per scanner chunk: a chunk is done once it has been
+ * read and every EUI-64 address from it has been resolved (known IID,
+ * duplicate MAC, no landmark, landmark handed to the writer, or failed). The
+ * committed offset is the end of the longest run of done chunks from the
+ * start. Every MAC resolved with a result is appended to a journal, so the
+ * deduplication state survives too; failed lookups are not journalled.
+ *
+ * A commit, on a background thread, appends the new journal entries, makes
+ * the pipeline's writes durable (the LandmarkWriter's partial batch and the
+ * pending prefix rotations), and only then atomically replaces the
+ * checkpoint file with the new offset and journal length. If a write failed,
+ * the checkpoint file is left as it was, so a resumed import redoes the
+ * addresses whose writes may have been lost; a lost landmark insert holds
+ * the checkpoint back for the rest of the run. On resume, the
+ * scan restarts at the committed offset and the journal is replayed into the
+ * MacDedupTable up to the recorded length. Work done after the last commit is
+ * done again; landmarks written by it are known IIDs by then, or duplicate
+ * _ids that MongoDB skips.
+ *
+ * Files: import-checkpoint.bin and import-macs.journal in the lanmarker
+ * state directory. A checkpoint only applies to the same file (path, size
+ * and modification time) and chunk size, and is deleted when the import
+ * finishes.
+ */
+public class ImportCheckpoint implements AutoCloseable {
+
+    public static final Path DEFAULT_CHECKPOINT_FILE = LocationFinder.STATE_DIR.resolve("import-checkpoint.bin");
+    public static final Path DEFAULT_JOURNAL_FILE = LocationFinder.STATE_DIR.resolve("import-macs.journal");
+
+    private static final int FILE_MAGIC = 0x494D4331; // "IMC1"
+    private static final int STATE_SHIFT = 48;
+
+    private static final Metrics.Counter COMMITS = Metrics.counter(
+            "lanmarker_import_checkpoints_total", "Import checkpoints written");
+    private static final Metrics.Counter SKIPPED = Metrics.counter(
+            "lanmarker_import_checkpoints_skipped_total", "Import checkpoints not written because a flush failed");
+    private static final LatencyHistogram COMMIT_TIME = Metrics.histogram(
+            "lanmarker_import_checkpoint_seconds", "Time to write one import checkpoint, including the flushes");
+
+    private final Path checkpointFile;
+    private final Path journalFile;
+    private final String hitlist;
+    private final long fileSize;
+    private final long lastModified;
+    private final int chunkSize;
+    private final long resumeOffset;
+    private final long restoredJournalBytes;
+
+    // Per chunk (relative to resumeOffset): addresses not yet resolved, and whether it has been read.
+    private final AtomicIntegerArray outstanding;
+    private final AtomicIntegerArray scanned;
+    private long committedChunks = 0;
+    private volatile long committedOffset;
+
+    private final Object journalLock = new Object();
+    private long[] pendingMacs = new long[1024];
+    private int pendingCount = 0;
+    private final FileChannel journal;
+    private long journalBytes;
+    private long committedJournalBytes;
+
+    private ScheduledExecutorService committer;
+
+    /**
+     * Opens the checkpoint for importing {@code hitlist} with scanner chunks
+     * of {@code chunkSize} bytes; resumes from an existing checkpoint if it
+     * belongs to the same file, and starts over otherwise.
+     */
+    public ImportCheckpoint(Path hitlist, int chunkSize, Path checkpointFile, Path journalFile) throws IOException {
+        this.checkpointFile = checkpointFile;
+        this.journalFile = journalFile;
+        this.hitlist = hitlist.toAbsolutePath().toString();
+        this.fileSize = Files.size(hitlist);
+        this.lastModified = Files.getLastModifiedTime(hitlist).toMillis();
+        this.chunkSize = chunkSize;
+
+        long[] saved = load();
+        this.resumeOffset = saved == null ? 0 : saved[0];
+        this.restoredJournalBytes = saved == null ? 0 : saved[1];
+        this.committedOffset = resumeOffset;
+
+        // Anything past the recorded length was written after the last commit.
+        this.journal = FileChannel.open(journalFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journal.truncate(restoredJournalBytes);
+        journal.position(restoredJournalBytes);
+        this.journalBytes = restoredJournalBytes;
+        this.committedJournalBytes = restoredJournalBytes;
+
+        int chunks = (int) Math.max(1, (fileSize - resumeOffset + chunkSize - 1) / chunkSize);
+        this.outstanding = new AtomicIntegerArray(chunks);
+        this.scanned = new AtomicIntegerArray(chunks);
+    }
+
+    /** Where the scan should start: 0, or the committed offset of an interrupted import. */
+    public long resumeOffset() {
+        return resumeOffset;
+    }
+
+    public long committedOffset() {
+        return committedOffset;
+    }
+
+    /**
+     * Replays the journalled MAC results into {@code macs}.
+     *
+     * @return how many were restored.
+     */
+    public long restoreMacs(MacDedupTable macs) throws IOException {
+        long restored = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            for (long read = 0; read < restoredJournalBytes; read += Long.BYTES) {
+                long entry = in.readLong();
+                macs.putIfAbsent(entry & 0xFFFF_FFFF_FFFFL, (int) (entry >>> STATE_SHIFT));
+                restored++;
+            }
+        }
+        return restored;
+    }
+
+    // --- Progress, called by the import threads ---
+
+    public void itemStarted(long chunk) {
+        outstanding.incrementAndGet((int) chunk);
+    }
+
+    public void itemFinished(long chunk) {
+        outstanding.decrementAndGet((int) chunk);
+    }
+
+    public void chunkScanned(long chunk) {
+        scanned.set((int) chunk, 1);
+    }
+
+    /** Records the final state of a MAC for the journal. */
+    public void macResolved(long mac, int state) {
+        synchronized (journalLock) {
+            if (pendingCount == pendingMacs.length) {
+                pendingMacs = Arrays.copyOf(pendingMacs, pendingCount * 2);
+            }
+            pendingMacs[pendingCount++] = (mac & 0xFFFF_FFFF_FFFFL) | (long) state << STATE_SHIFT;
+        }
+    }
+
+    // --- Commits ---
+
+    /**
+     * Commits every {@code intervalMillis} in the background.
+     *
+     * @param makeDurable flushes everything the resolved addresses wrote, and
+     *        returns false if some of it failed; run before each checkpoint.
+     */
+    public void start(long intervalMillis, BooleanSupplier makeDurable) {
+        committer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "import-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        committer.scheduleWithFixedDelay(() -> {
+            try {
+                commit(makeDurable);
+            } catch (IOException e) {
+                System.out.println("Import checkpoint failed: " + e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes a checkpoint if the committed offset moved or MACs were resolved
+     * since the last one, unless {@code makeDurable} reports a failed write.
+     */
+    public synchronized void commit(BooleanSupplier makeDurable) throws IOException {
+        long start = System.nanoTime();
+        long chunks = committedChunks;
+        while (chunks < scanned.length() && scanned.get((int) chunks) == 1 && outstanding.get((int) chunks) == 0) {
+            chunks++;
+        }
+        long[] macs;
+        int count;
+        synchronized (journalLock) {
+            macs = pendingMacs;
+            count = pendingCount;
+            pendingMacs = new long[Math.max(1024, count)];
+            pendingCount = 0;
+        }
+        if (chunks == committedChunks && count == 0 && journalBytes == committedJournalBytes) return;
+
+        ByteBuffer buffer = ByteBuffer.allocate(count * Long.BYTES);
+        buffer.asLongBuffer().put(macs, 0, count);
+        while (buffer.hasRemaining()) {
+            journal.write(buffer);
+        }
+        journal.force(false);
+        journalBytes += (long) count * Long.BYTES;
+
+        if (!makeDurable.getAsBoolean()) {
+            // The journal entries stay, but past the recorded length until a later commit succeeds.
+            SKIPPED.inc();
+            System.out.printf("Import checkpoint skipped: writes failed, keeping byte %,d%n", committedOffset);
+            return;
+        }
+
+        long offset = Math.min(fileSize, resumeOffset + chunks * chunkSize);
+        Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeUTF(hitlist);
+            out.writeLong(fileSize);
+            out.writeLong(lastModified);
+            out.writeInt(chunkSize);
+            out.writeLong(offset);
+            out.writeLong(journalBytes);
+        }
+        Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committedChunks = chunks;
+        committedOffset = offset;
+        committedJournalBytes = journalBytes;
+        COMMITS.inc();
+        COMMIT_TIME.recordSince(start);
+    }
+
+    /** The import completed: stops committing and deletes the checkpoint and journal. */
+    public void finish() throws IOException {
+        close();
+        Files.deleteIfExists(checkpointFile);
+        Files.deleteIfExists(journalFile);
+    }
+
+    /** Stops committing and keeps the files, so the import can be resumed. */
+    @Override
+    public void close() throws IOException {
+        if (committer != null) {
+            committer.shutdown();
+            try {
+                committer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        journal.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("committed %,d of %,d bytes, %,d MAC results journalled",
+                committedOffset, fileSize, journalBytes / Long.BYTES);
+    }
+
+    /** {committed offset, journal length} of a checkpoint for this import, or null. */
+    private long[] load() throws IOException {
+        if (!Files.exists(checkpointFile)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointFile)))) {
+            if (in.readInt() != FILE_MAGIC || !in.readUTF().equals(hitlist) || in.readLong() != fileSize
+                    || in.readLong() != lastModified || in.readInt() != chunkSize) {
+                return null;
+            }
+            long offset = in.readLong();
+            long journalLength = in.readLong();
+            if (!Files.exists(journalFile) || Files.size(journalFile) < journalLength) return null;
+            return new long[] {offset, journalLength};
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.yourproject;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Allocation-free conversion between IPv6 text and 16-byte arrays.
+ * Used by the hitlist scanner so that non-EUI-64 lines never become Strings.
+ */
+public final class Ipv6Bytes {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private Ipv6Bytes() {
+    }
+
+    /**
+     * Parses the IPv6 address in {@code buf[from, to)} into {@code out}.
+     * Leading/trailing whitespace is ignored and the address ends at the first
+     * space, tab or comma, so "addr,extra" style lines are accepted.
+     *
+     * @return true if a full 128-bit address was written to {@code out}.
+     */
+    public static boolean parse(ByteBuffer buf, int from, int to, byte[] out) {
+        // --- Trim ---
+        while (from < to && isBlank(buf.get(from))) from++;
+        int end = from;
+        while (end < to) {
+            byte b = buf.get(end);
+            if (b == ' ' || b == '\t' || b == ',' || b == '\r' || b == '\n') break;
+            end++;
+        }
+        if (from == end) return false;
+
+        int groups = 0;      // groups written so far
+        int gapAt = -1;      // group index where "::" appeared
+        int pos = from;
+
+        if (buf.get(pos) == ':') {
+            if (end - pos < 2 || buf.get(pos + 1) != ':') return false;
+            gapAt = 0;
+            pos += 2;
+        }
+
+        while (pos < end) {
+            int value = 0;
+            int digits = 0;
+            while (pos < end && digits < 5) {
+                int d = hexValue(buf.get(pos));
+                if (d < 0) break;
+                value = (value << 4) | d;
+                digits++;
+                pos++;
+            }
+            if (digits == 0 || digits > 4 || groups == 8) return false;
+            out[groups * 2] = (byte) (value >>> 8);
+            out[groups * 2 + 1] = (byte) value;
+            groups++;
+
+            if (pos == end) break;
+            if (buf.get(pos) != ':') return false; // embedded IPv4 and garbage end up here
+            pos++;
+            if (pos < end && buf.get(pos) == ':') {
+                if (gapAt >= 0) return false;
+                gapAt = groups;
+                pos++;
+            } else if (pos == end) {
+                return false; // trailing single ':'
+            }
+        }
+
+        if (gapAt < 0) {
+            return groups == 8;
+        }
+        if (groups > 7) return false;
+
+        // Move the groups after "::" to the end and zero the gap.
+        int tailBytes = (groups - gapAt) * 2;
+        int gapBytes = 16 - groups * 2;
+        System.arraycopy(out, gapAt * 2, out, gapAt * 2 + gapBytes, tailBytes);
+        for (int i = gapAt * 2; i < gapAt * 2 + gapBytes; i++) {
+            out[i] = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Formats a 16-byte address in the canonical RFC 5952 text form.
+     */
+    public static String format(byte[] address) {
+        // Find the longest run (length >= 2) of zero groups to compress.
+        int bestStart = -1, bestLen = 0;
+        int runStart = -1;
+        for (int g = 0; g <= 8; g++) {
+            boolean zero = g < 8 && address[g * 2] == 0 && address[g * 2 + 1] == 0;
+            if (zero) {
+                if (runStart < 0) runStart = g;
+            } else if (runStart >= 0) {
+                int len = g - runStart;
+                if (len > bestLen && len >= 2) {
+                    bestStart = runStart;
+                    bestLen = len;
+                }
+                runStart = -1;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(39);
+        for (int g = 0; g < 8; g++) {
+            if (g == bestStart) {
+                sb.append("::");
+                g += bestLen - 1;
+                continue;
+            }
+            if (g > 0 && g != bestStart + bestLen) sb.append(':');
+            int value = ((address[g * 2] & 0xFF) << 8) | (address[g * 2 + 1] & 0xFF);
+            boolean started = false;
+            for (int shift = 12; shift >= 0; shift -= 4) {
+                int d = (value >>> shift) & 0xF;
+                if (d != 0 || started || shift == 0) {
+                    sb.append(HEX_DIGITS[d]);
+                    started = true;
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Lower-case hex of {@code length} bytes starting at {@code offset} (no separators).
+     */
+    public static String toHex(byte[] bytes, int offset, int length) {
+        char[] chars = new char[length * 2];
+        for (int i = 0; i < length; i++) {
+            int b = bytes[offset + i] & 0xFF;
+            chars[i * 2] = HEX_DIGITS[b >>> 4];
+            chars[i * 2 + 1] = HEX_DIGITS[b & 0xF];
+        }
+        return new String(chars);
+    }
+
+    // --- 64-bit halves ---
+
+    /** The upper 64 bits (routing prefix + subnet) of a 16-byte address. */
+    public static long prefix(byte[] address) {
+        return readLong(address, 0);
+    }
+
+    /** The lower 64 bits (interface identifier) of a 16-byte address. */
+    public static long interfaceId(byte[] address) {
+        return readLong(address, 8);
+    }
+
+    /** Rebuilds a 16-byte address from its two halves. */
+    public static byte[] fromParts(long prefix, long interfaceId) {
+        byte[] address = new byte[MacUtils.IPV6_BYTE_LENGTH];
+        for (int i = 7; i >= 0; i--) {
+            address[i] = (byte) prefix;
+            address[i + 8] = (byte) interfaceId;
+            prefix >>>= 8;
+            interfaceId >>>= 8;
+        }
+        return address;
+    }
+
+    /** 16 lower-case hex digits, the format used for the interface_id field. */
+    public static String hex64(long value) {
+        char[] chars = new char[16];
+        for (int i = 15; i >= 0; i--) {
+            chars[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /** Parses a text address, or returns null if it is not valid IPv6. */
+    public static byte[] parse(String text) {
+        byte[] out = new byte[MacUtils.IPV6_BYTE_LENGTH];
+        ByteBuffer buf = ByteBuffer.wrap(text.getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        return parse(buf, 0, buf.limit(), out) ? out : null;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') return b - '0';
+        if (b >= 'a' && b <= 'f') return b - 'a' + 10;
+        if (b >= 'A' && b <= 'F') return b - 'A' + 10;
+        return -1;
+    }
+}
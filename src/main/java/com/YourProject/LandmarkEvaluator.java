@@ -1,53 +1,38 @@
 package com.yourproject;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-
 /**
  * [cite_start]Implements the "Evaluation of IPv6 Street-Level Landmarks" [cite: 323-354].
- * This is a STUB for the complex `traceroute` logic.
+ *
+ * The full evaluation:
+ * 1. Loading all candidate landmarks from the DB.
+ * 2. Grouping them by city.
+ * 3. Running `traceroute` on all of them to find common routers.
+ * [cite_start]4. Applying the "triangle inequality" formula [cite: 343-346].
+ * 5. Marking the ones that pass as `is_reliable = 1` in the DB.
+ *
+ * The traceroutes run in parallel in a {@link TracerouteEngine}; the rest is
+ * done incrementally by a {@link ReliabilityEngine}, so after the first run
+ * only landmarks that changed since the previous one are looked at again.
  */
 public class LandmarkEvaluator {
 
-    /**
-     * This method would implement the full triangulation and evaluation.
-     * It is a very complex process involving:
-     * 1. Loading all candidate landmarks from the DB.
-     * 2. Grouping them by city.
-     * 3. Running `traceroute` on all of them to find common routers.
-     * [cite_start]4. Applying the "triangle inequality" formula [cite: 343-346].
-     * 5. Marking the ones that pass as `is_reliable = 1` in the DB.
-     */
-    public void evaluateAllLandmarks() {
-        System.out.println("Starting landmark evaluation (stub)...");
-        System.out.println("This step requires a full implementation of " +
-                           "traceroute parsing and the triangle inequality check.");
-        
-        // Example of how you would get traceroute data:
-        // String traceOutput = runTraceroute("2001:4860:4860::8888"); // Google DNS
-        // System.out.println(traceOutput);
+    private final ReliabilityEngine reliability;
+
+    public LandmarkEvaluator() {
+        this(new ReliabilityEngine(new TracerouteEngine(), ReliabilityEngine.DEFAULT_STATE_FILE));
     }
 
-    private String runTraceroute(String ipAddress) {
-        // Warning: This command is OS-dependent.
-        // Linux: "traceroute6 -n " + ipAddress
-        // Windows: "tracert -6 " + ipAddress
-        String command = "traceroute6 -n " + ipAddress; 
-        StringBuilder output = new StringBuilder();
-        
-        try {
-            Process p = Runtime.getRuntime().exec(command);
-            p.waitFor(30, java.util.concurrent.TimeUnit.SECONDS);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
+    public LandmarkEvaluator(ReliabilityEngine reliability) {
+        this.reliability = reliability;
+    }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                // TODO: Parse this line to find router IPs and delays
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return output.toString();
+    /** Told about every landmark whose is_reliable flag changes. */
+    public void addLandmarkListener(LandmarkListener listener) {
+        reliability.addLandmarkListener(listener);
+    }
+
+    public void evaluateAllLandmarks() {
+        System.out.println("Starting landmark evaluation...");
+        reliability.evaluate();
     }
 }
\ No newline at end of file
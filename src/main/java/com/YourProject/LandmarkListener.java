@@ -0,0 +1,22 @@
+package com.yourproject;
+
+import org.bson.Document;
+
+/**
+ * Notified when landmarks are written, so in-memory views (the
+ * ClusterTileIndex) can follow the landmarks collection
+ * without re-reading it. Called from the writing threads; implementations
+ * must be thread-safe and must not modify the document.
+ */
+public interface LandmarkListener {
+
+    /** A new landmark document was inserted (duplicates and failed inserts are not reported). */
+    void landmarkAdded(Document landmark);
+
+    /**
+     * A landmark's is_reliable flag changed. {@code landmark} holds at least
+     * its _id and coordinates (and country / AS fields if it has them).
+     */
+    default void reliabilityChanged(Document landmark, boolean reliable) {
+    }
+}
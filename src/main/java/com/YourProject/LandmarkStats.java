@@ -0,0 +1,92 @@
+package com.yourproject;
+
+import com.google.gson.Gson;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cached top-10 landmark counts per country and per AS, for the dashboard.
+ *
+ * The $group aggregations run at startup and then every
+ * {@link #REFRESH_INTERVAL_MINUTES} minutes on a background thread; the
+ * results are kept as ready-to-send JSON, so the endpoints are constant-time
+ * reads instead of an aggregation per request. The lists can be up to one
+ * interval old. Like the aggregations, they count every landmark with a
+ * country / as_name, reliable or not; the importer doesn't set either field,
+ * so only documents enriched by another process are counted.
+ */
+public class LandmarkStats {
+
+    public static final long REFRESH_INTERVAL_MINUTES = 10;
+    private static final int TOP_N = 10;
+
+    private static final LatencyHistogram REFRESH_TIME = Metrics.histogram(
+            "lanmarker_stats_refresh_seconds", "Time to recompute the top country/AS lists from MongoDB");
+
+    private final Gson gson = new Gson();
+    private volatile String topCountriesJson = "[]";
+    private volatile String topAutonomousSystemsJson = "[]";
+    private volatile int countryCount = 0;
+    private volatile int autonomousSystemCount = 0;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Computes the lists and starts refreshing them.
+     */
+    public void start() {
+        refresh();
+        Metrics.gauge("lanmarker_stats_countries", "Countries with at least one landmark", () -> countryCount);
+        Metrics.gauge("lanmarker_stats_autonomous_systems", "ASes with at least one landmark",
+                () -> autonomousSystemCount);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "landmark-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::refresh,
+                REFRESH_INTERVAL_MINUTES, REFRESH_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /** Top 10 countries as [{"name","count"},...]. */
+    public String topCountriesJson() {
+        return topCountriesJson;
+    }
+
+    /** Top 10 ASes as [{"name","asn","count"},...]. */
+    public String topAutonomousSystemsJson() {
+        return topAutonomousSystemsJson;
+    }
+
+    /**
+     * Re-runs the aggregations and replaces the cached lists; on failure the
+     * previous lists stay.
+     */
+    public void refresh() {
+        long start = System.nanoTime();
+        try {
+            List<Map<String, Object>> countries = DatabaseManager.getCountryCounts(0);
+            List<Map<String, Object>> autonomousSystems = DatabaseManager.getAutonomousSystemCounts(0);
+            // Both come sorted by count, largest first.
+            topCountriesJson = gson.toJson(countries.subList(0, Math.min(TOP_N, countries.size())));
+            topAutonomousSystemsJson = gson.toJson(
+                    autonomousSystems.subList(0, Math.min(TOP_N, autonomousSystems.size())));
+            countryCount = countries.size();
+            autonomousSystemCount = autonomousSystems.size();
+        } catch (Exception e) {
+            System.out.println("Landmark stats refresh failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+        REFRESH_TIME.recordSince(start);
+    }
+}
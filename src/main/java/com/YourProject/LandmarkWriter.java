@@ -0,0 +1,237 @@
+package com.yourproject;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind buffer for candidate landmarks.
+ *
+ * Producers hand documents to {@link #add(Document)}; a background thread
+ * collects them into unordered bulk inserts and flushes whenever a batch is
+ * full or the oldest document has waited {@code maxDelayMillis}. When the
+ * buffer is full, {@code add} blocks so producers slow down to what Mongo can
+ * absorb. Duplicate-key errors are counted per batch instead of being thrown
+ * per document. {@link LandmarkListener}s hear about each document once it
+ * has actually been inserted (not when it is queued, and not for duplicates).
+ * {@link #flush} reports whether everything added before it was written.
+ */
+public class LandmarkWriter implements AutoCloseable {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 500;
+    public static final int DEFAULT_CAPACITY = 20_000;
+
+    private final MongoCollection<Document> collection;
+    private final BlockingQueue<Document> buffer;
+    private final int batchSize;
+    private final long maxDelayMillis;
+    private final Thread flusher;
+    private volatile boolean closed = false;
+    private final List<LandmarkListener> listeners = new CopyOnWriteArrayList<>();
+
+    // --- Per-batch counters ---
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    // Sequence numbers used by flush() to wait for everything added before it.
+    private final AtomicLong added = new AtomicLong();
+    private long written = 0; // guarded by 'this'
+    private long firstLost = Long.MAX_VALUE; // guarded by 'this': first document that couldn't be inserted
+
+    public LandmarkWriter(MongoCollection<Document> collection) {
+        this(collection, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_CAPACITY);
+    }
+
+    public LandmarkWriter(MongoCollection<Document> collection, int batchSize, long maxDelayMillis, int capacity) {
+        this.collection = collection;
+        this.batchSize = batchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+        this.flusher = new Thread(this::runFlusher, "landmark-writer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Tells {@code listener} about every document this writer inserts.
+     * Called from the writer thread.
+     */
+    public void addLandmarkListener(LandmarkListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Queues a landmark document, blocking while the buffer is full.
+     *
+     * @throws IllegalStateException if the writer is closed, or the caller
+     *         was interrupted before the document could be queued.
+     */
+    public void add(Document doc) {
+        if (closed) {
+            throw new IllegalStateException("LandmarkWriter is closed");
+        }
+        try {
+            buffer.put(doc);
+            added.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.incrementAndGet();
+            throw new IllegalStateException("Interrupted while queueing landmark " + doc.get("_id"));
+        }
+    }
+
+    /**
+     * Blocks until every document added before this call has been written.
+     *
+     * @return false if one of them couldn't be inserted (duplicates aside),
+     *         or the wait was cut short.
+     */
+    public boolean flush() {
+        long target = added.get();
+        synchronized (this) {
+            while (written < target && flusher.isAlive()) {
+                try {
+                    wait(maxDelayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return written >= target && firstLost > target;
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        closed = true;
+        flusher.interrupt();
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long insertedCount() { return inserted.get(); }
+    public long duplicateCount() { return duplicates.get(); }
+    public long failedCount() { return failed.get(); }
+    public long batchCount() { return batches.get(); }
+    public int bufferedCount() { return buffer.size(); }
+
+    @Override
+    public String toString() {
+        return String.format("%,d inserted, %,d duplicates, %,d failed in %,d batches",
+                insertedCount(), duplicateCount(), failedCount(), batchCount());
+    }
+
+    // --- Background flusher ---
+
+    private void runFlusher() {
+        List<Document> batch = new ArrayList<>(batchSize);
+        while (!closed || !buffer.isEmpty()) {
+            try {
+                Document first = buffer.poll(maxDelayMillis, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (batch.size() < batchSize) {
+                    if (buffer.drainTo(batch, batchSize - batch.size()) > 0) continue;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) break;
+                    Document next = buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // close() interrupts us; drain whatever is left and exit.
+                buffer.drainTo(batch);
+                closed = true;
+            }
+
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Sends one unordered bulk insert. Overridden by the load-test driver to
+     * keep Mongo out of the measurement.
+     */
+    protected BulkWriteResult bulkInsert(List<WriteModel<Document>> models) {
+        return collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+    }
+
+    private void writeBatch(List<Document> batch) {
+        List<WriteModel<Document>> models = new ArrayList<>(batch.size());
+        for (Document doc : batch) {
+            models.add(new InsertOneModel<>(doc));
+        }
+
+        // Documents of the batch that weren't inserted, and the first of them that isn't a duplicate.
+        BitSet notInserted = new BitSet(batch.size());
+        int firstFailed = -1;
+        try {
+            BulkWriteResult result = bulkInsert(models);
+            inserted.addAndGet(result.getInsertedCount());
+        } catch (MongoBulkWriteException e) {
+            // Unordered: everything without an error was inserted.
+            inserted.addAndGet(e.getWriteResult().getInsertedCount());
+            for (BulkWriteError error : e.getWriteErrors()) {
+                notInserted.set(error.getIndex());
+                if (ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+                    duplicates.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                    if (firstFailed < 0 || error.getIndex() < firstFailed) firstFailed = error.getIndex();
+                }
+            }
+        } catch (RuntimeException e) {
+            // Not only MongoException: nothing may kill the flusher, or flush() and add() would hang.
+            notInserted.set(0, batch.size());
+            firstFailed = 0;
+            failed.addAndGet(batch.size());
+            System.out.println("Landmark batch of " + batch.size() + " failed: " + e);
+        }
+        for (int i = notInserted.nextClearBit(0); i < batch.size(); i = notInserted.nextClearBit(i + 1)) {
+            for (LandmarkListener listener : listeners) {
+                try {
+                    listener.landmarkAdded(batch.get(i));
+                } catch (RuntimeException e) {
+                    // The document is in; a broken listener only misses it.
+                    e.printStackTrace();
+                }
+            }
+        }
+        batches.incrementAndGet();
+
+        synchronized (this) {
+            if (firstFailed >= 0) {
+                firstLost = Math.min(firstLost, written + firstFailed + 1);
+            }
+            written += batch.size();
+            notifyAll();
+        }
+    }
+}
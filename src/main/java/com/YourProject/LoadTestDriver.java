@@ -0,0 +1,153 @@
+package com.yourproject;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * End-to-end load test: a synthetic hitlist through DataImporter ->
+ * LocationFinder -> CoordinateFilter -> LandmarkWriter, against a local
+ * WiGLE stand-in instead of the real API.
+ *
+ * Usage: {@code java com.yourproject.LoadTestDriver [addresses] [wigle-url]}
+ *
+ * Without a URL an in-process {@link FakeWigleServer} is started, configured
+ * by its -Dfakewigle.* properties. Other knobs:
+ * -Dloadtest.eui64.percent (70), -Dloadtest.repeat.percent (5),
+ * -Dloadtest.seed (42), -Dloadtest.mode (INCREMENTAL or STAGED),
+ * -Dloadtest.rate (WiGLE requests/sec, 1000), -Dloadtest.in.flight (64).
+ *
+ * Nothing touches Mongo: landmarks are batched by a LandmarkWriter that
+ * drops them instead of inserting, and the persisted filters and histograms
+ * go to a temp directory unless -Dlanmarker.state.dir is set.
+ */
+public class LoadTestDriver {
+
+    // A few real router OUIs, so the offset planner sees several vendors.
+    private static final long[] OUIS = {0x001A2BL, 0x3C7C3FL, 0xA0F3C1L, 0x5C628BL, 0xE8DE27L, 0x14CC20L};
+
+    public static void main(String[] args) throws IOException {
+        int addresses = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        String externalUrl = args.length > 1 ? args[1] : null;
+
+        // Before LocationFinder is loaded, so the real negative filter and histograms are left alone.
+        if (System.getProperty("lanmarker.state.dir") == null) {
+            System.setProperty("lanmarker.state.dir", Files.createTempDirectory("lanmarker-loadtest").toString());
+        }
+
+        Path hitlist = Files.createTempFile("loadtest-hitlist", ".txt");
+        try (FakeWigleServer server = externalUrl == null ? FakeWigleServer.fromSystemProperties() : null) {
+            String url = externalUrl != null ? externalUrl : server.url();
+            int eui64 = writeHitlist(hitlist, addresses,
+                    doubleProperty("loadtest.eui64.percent", 70), doubleProperty("loadtest.repeat.percent", 5),
+                    Long.getLong("loadtest.seed", 42));
+            System.out.printf("Synthetic hitlist: %,d addresses (%,d EUI-64) in %s%n", addresses, eui64, hitlist);
+            System.out.println("WiGLE endpoint: " + url);
+
+            WigleRequestScheduler scheduler = new WigleRequestScheduler(
+                    doubleProperty("loadtest.rate", 1000), Integer.getInteger("loadtest.in.flight", 64), Long.MAX_VALUE);
+            LocationFinder finder = new LocationFinder(null, url, scheduler);
+            finder.setProbingMode(LocationFinder.ProbingMode.valueOf(
+                    System.getProperty("loadtest.mode", LocationFinder.ProbingMode.INCREMENTAL.name())));
+            DiscardingLandmarkWriter writer = new DiscardingLandmarkWriter();
+            // start() would load the tracked landmarks from Mongo; an empty tracker is what we want.
+            DataImporter importer = new DataImporter(new UpdateService(), finder, writer);
+
+            long start = System.nanoTime();
+            importer.importHitlist(hitlist);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            writer.close();
+
+            long landmarks = writer.insertedCount();
+            long calls = server != null ? server.requestCount() : scheduler.sentCount();
+            LatencyHistogram latency = importer.getLookupLatency();
+            System.out.println("-------------------------------------------------");
+            System.out.printf("Load test (%s): %,d landmarks from %,d lookups in %.1fs%n",
+                    finder.getProbingMode(), landmarks, latency.count(), seconds);
+            System.out.printf("  landmarks/sec:            %,.1f%n", landmarks / seconds);
+            System.out.printf("  WiGLE calls per landmark: %.2f (%,d calls)%n",
+                    landmarks == 0 ? 0.0 : (double) calls / landmarks, calls);
+            System.out.printf("  lookup latency:           p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                    latency.percentile(50) / 1e6, latency.percentile(99) / 1e6, latency.max() / 1e6);
+            if (server != null) {
+                System.out.println("  fake WiGLE:               " + server);
+            }
+            System.out.println("-------------------------------------------------");
+        } finally {
+            Files.deleteIfExists(hitlist);
+        }
+    }
+
+    /**
+     * Writes {@code count} addresses: EUI-64 ones built from random MACs under
+     * {@link #OUIS}, privacy (random IID) ones otherwise, and some EUI-64 IIDs
+     * repeated under a new prefix to exercise the prefix rotation path.
+     *
+     * @return how many of the lines are EUI-64.
+     */
+    static int writeHitlist(Path file, int count, double eui64Percent, double repeatPercent, long seed)
+            throws IOException {
+        Random random = new Random(seed);
+        long[] seen = new long[Math.max(1, count)];
+        int seenCount = 0;
+        int eui64 = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("# synthetic hitlist, seed " + seed);
+            out.newLine();
+            for (int i = 0; i < count; i++) {
+                long prefix = 0x2001_0db8_0000_0000L | (random.nextLong() & 0xFFFF_FFFFL);
+                long iid;
+                if (random.nextDouble() * 100 >= eui64Percent) {
+                    iid = random.nextLong() & ~0x0000_00FF_FF00_0000L; // never ff:fe in the middle
+                } else {
+                    eui64++;
+                    if (seenCount > 0 && random.nextDouble() * 100 < repeatPercent) {
+                        iid = seen[random.nextInt(seenCount)];
+                    } else {
+                        long mac = OUIS[random.nextInt(OUIS.length)] << 24 | (random.nextInt() & 0xFFFFFFL);
+                        iid = eui64InterfaceId(mac);
+                        seen[seenCount++] = iid;
+                    }
+                }
+                out.write(Ipv6Bytes.format(Ipv6Bytes.fromParts(prefix, iid)));
+                out.newLine();
+            }
+        }
+        return eui64;
+    }
+
+    /** The inverse of {@link MacUtils#macFromIid}: insert ff:fe and flip the U/L bit. */
+    static long eui64InterfaceId(long mac) {
+        long iid = (mac >>> 24) << 40 | 0xFFFEL << 24 | (mac & 0xFFFFFFL);
+        return iid ^ 0x0200_0000_0000_0000L;
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    /**
+     * Goes through the normal write-behind batching but drops every batch
+     * instead of inserting it, so only our side of storage is measured.
+     */
+    private static final class DiscardingLandmarkWriter extends LandmarkWriter {
+        DiscardingLandmarkWriter() {
+            super(null);
+        }
+
+        @Override
+        protected BulkWriteResult bulkInsert(List<WriteModel<Document>> models) {
+            return BulkWriteResult.acknowledged(models.size(), 0, 0, 0,
+                    Collections.emptyList(), Collections.emptyList());
+        }
+    }
+}
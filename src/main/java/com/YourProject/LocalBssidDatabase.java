@@ -0,0 +1,165 @@
+package com.yourproject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-only BSSID -> coordinate table in a memory-mapped file, built from
+ * offline dumps by {@link BssidCsvConverter}.
+ *
+ * File layout (little-endian):
+ * - header: int magic "LBD1", int record size (16), long record count;
+ * - records sorted by BSSID: long BSSID, long {@link PackedLatLon}.
+ *
+ * The file is mapped in 1 GiB segments, so it can be far larger than one
+ * MappedByteBuffer allows. Every 256th key is copied into a heap array (1/512
+ * of the file size). A lookup binary-searches that array to find its 4 KB
+ * block, then interpolation-searches the block (BSSIDs are close to uniform
+ * within a block), falling back to binary search if interpolation stops
+ * converging. A lookup touches one or two pages and never allocates.
+ */
+public class LocalBssidDatabase implements LocationSource, Closeable {
+
+    static final int MAGIC = 0x3144424C; // "LBD1" as little-endian bytes
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 16;
+
+    private static final int SEGMENT_RECORD_BITS = 26; // 64M records = 1 GiB per mapping
+    private static final long SEGMENT_RECORD_MASK = (1L << SEGMENT_RECORD_BITS) - 1;
+    private static final int INDEX_STRIDE_BITS = 8;
+    private static final int MAX_INTERPOLATION_STEPS = 4;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer[] segments;
+    private final long count;
+    private final long[] sampleKeys; // key of record i << INDEX_STRIDE_BITS
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    public LocalBssidDatabase(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (size < HEADER_BYTES || channel.read(header, 0) != HEADER_BYTES) {
+                throw new IOException(file + " is not a BSSID database (too short)");
+            }
+            if (header.getInt(0) != MAGIC || header.getInt(4) != RECORD_BYTES) {
+                throw new IOException(file + " is not a BSSID database (bad header)");
+            }
+            this.count = header.getLong(8);
+            if (count < 0 || size != HEADER_BYTES + count * RECORD_BYTES) {
+                throw new IOException(file + " is truncated: header says " + count + " records");
+            }
+
+            int segmentCount = (int) ((count + SEGMENT_RECORD_MASK) >>> SEGMENT_RECORD_BITS);
+            this.segments = new ByteBuffer[segmentCount];
+            for (int s = 0; s < segmentCount; s++) {
+                long first = (long) s << SEGMENT_RECORD_BITS;
+                long records = Math.min(count - first, 1L << SEGMENT_RECORD_BITS);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + first * RECORD_BYTES, records * RECORD_BYTES);
+                segments[s] = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            int samples = (int) ((count + (1L << INDEX_STRIDE_BITS) - 1) >>> INDEX_STRIDE_BITS);
+            this.sampleKeys = new long[samples];
+            for (int i = 0; i < samples; i++) {
+                sampleKeys[i] = keyAt((long) i << INDEX_STRIDE_BITS);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long lookup(long bssid) {
+        lookups.increment();
+        long index = find(bssid & MacUtils.MAC_MASK);
+        if (index < 0) return PackedLatLon.NONE;
+        hits.increment();
+        return valueAt(index);
+    }
+
+    @Override
+    public String name() {
+        return "local:" + file.getFileName();
+    }
+
+    public long size() { return count; }
+    public long lookupCount() { return lookups.sum(); }
+    public long hitCount() { return hits.sum(); }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %,d records, %,d lookups, %,d hits", name(), count, lookupCount(), hitCount());
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close(); // the mappings stay valid until they are garbage collected
+    }
+
+    // --- Search ---
+
+    private long find(long key) {
+        // Last sampled block whose first key is <= key.
+        int lo = 0, hi = sampleKeys.length - 1, block = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sampleKeys[mid] <= key) {
+                block = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (block < 0) return -1;
+
+        long low = (long) block << INDEX_STRIDE_BITS;
+        long high = Math.min(count, low + (1L << INDEX_STRIDE_BITS)) - 1;
+        long lowKey = keyAt(low);
+        long highKey = keyAt(high);
+
+        for (int step = 0; step < MAX_INTERPOLATION_STEPS; step++) {
+            if (key < lowKey || key > highKey) return -1;
+            if (highKey == lowKey) return low; // lowKey <= key <= highKey
+            long guess = low + (long) ((double) (key - lowKey) / (highKey - lowKey) * (high - low));
+            long guessKey = keyAt(guess);
+            if (guessKey == key) return guess;
+            if (guessKey < key) low = guess + 1; else high = guess - 1;
+            if (low > high) return -1;
+            lowKey = keyAt(low);
+            highKey = keyAt(high);
+        }
+
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long midKey = keyAt(mid);
+            if (midKey == key) return mid;
+            if (midKey < key) low = mid + 1; else high = mid - 1;
+        }
+        return -1;
+    }
+
+    private long keyAt(long index) {
+        return segments[(int) (index >>> SEGMENT_RECORD_BITS)]
+                .getLong((int) (index & SEGMENT_RECORD_MASK) * RECORD_BYTES);
+    }
+
+    private long valueAt(long index) {
+        return segments[(int) (index >>> SEGMENT_RECORD_BITS)]
+                .getLong((int) (index & SEGMENT_RECORD_MASK) * RECORD_BYTES + 8);
+    }
+}
@@ -1,19 +1,22 @@
 package com.yourproject;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.gson.Gson;
+import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Arrays; // Using Arrays.asList for compatibility
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 public class LocationFinder {
@@ -22,16 +25,117 @@ public class LocationFinder {
     // !! IF YOU RESET IT, YOU MUST PASTE THE NEW ONE HERE !!
     private static final String WIGLE_API_AUTH_TOKEN = "Basic QUlEMTgwMjU0MjBhNzA5MTAyZmE4ZjkyYzk5ZWJiNjU2MDkxOjFjMzEwNGYzNDkwNzQ4OWNjMjg0YjA5MWQwZWRlNmJm=";
     
-    private static final String WIGLE_API_URL = "https://api.wigle.net/api/v2/network/detail";
+    // Override with -Dwigle.api.url=... to point at a local stand-in.
+    private static final String WIGLE_API_URL =
+            System.getProperty("wigle.api.url", "https://api.wigle.net/api/v2/network/detail");
+
+    private final String wigleApiUrl;
 
     private final HttpClient httpClient;
     private final Gson gson;
-    private final Cache<String, LocationHit> bssidCache;
+    private final BssidCache bssidCache;
+    private final BssidCacheStore cacheStore; // persistent tier, may be null
+
+    private static final long CACHE_MAX_SIZE = 1_000_000;
+    private static final long CACHE_EXPIRE_DAYS = 30;
+    private static final long CACHE_PRELOAD_BUDGET_MILLIS = 30_000;
+
+    // --- Negative cache: BSSIDs WiGLE has no location for ---
+    // -Dlanmarker.state.dir=... moves this, the offset histograms and the reliability state
+    // out of the working directory.
+    static final Path STATE_DIR = Paths.get(System.getProperty("lanmarker.state.dir", ""));
+    private static final Path NEGATIVE_FILTER_FILE = STATE_DIR.resolve("bssid-negative.bin");
+    private static final long NEGATIVE_EXPECTED_ENTRIES = 10_000_000;
+    private static final double NEGATIVE_FALSE_POSITIVE_RATE = 0.001;
+    private static final long NEGATIVE_TTL_DAYS = 7;
+    private final NegativeBssidFilter negativeFilter;
+
+    // --- WiGLE request scheduling ---
+    private static final double WIGLE_MAX_REQUESTS_PER_SECOND = 10;
+    private static final int WIGLE_MAX_IN_FLIGHT = 16;
+    private static final long WIGLE_DAILY_QUOTA = 100_000;
+    private final WigleRequestScheduler scheduler;
+    private final SingleFlight<Long> wigleFlights = new SingleFlight<>();
+    // Set by the first over-quota failure, so it is logged once; cleared by the next answer.
+    private final AtomicBoolean quotaExhausted = new AtomicBoolean();
+
+    // --- Offset ordering, learned per OUI ---
+    private static final Path OFFSET_HISTOGRAM_FILE = STATE_DIR.resolve("offset-histograms.bin");
+    private final OffsetPlanner offsetPlanner = new OffsetPlanner();
+
+    // --- Local location sources, tried before WiGLE ---
+    // -Dbssid.db=a.bin,b.bin opens LocalBssidDatabase files; -Dwigle.offline=true never calls WiGLE.
+    private static final String LOCAL_DATABASES = System.getProperty("bssid.db", "");
+    private final List<LocationSource> localSources = new CopyOnWriteArrayList<>();
+    private volatile boolean remoteEnabled = !Boolean.getBoolean("wigle.offline");
+
+    // --- Probing mode ---
+    public enum ProbingMode {
+        STAGED,      // stage 1 at once, then every remaining offset at once
+        INCREMENTAL  // stage 1, then small sliding waves with early exit
+    }
+
+    // Probes in flight per MAC once incremental probing is past stage 1.
+    private static final int INCREMENTAL_WINDOW = 4;
+    private static final double CLUSTER_EPSILON_KM = 1.0;
+    private static final int CLUSTER_MIN_POINTS = 2;
+    private volatile ProbingMode probingMode = ProbingMode.INCREMENTAL;
+
+    // --- Metrics ---
+    private static final Metrics.Counter MAC_LOOKUPS = Metrics.counter(
+            "lanmarker_mac_lookups_total", "WAN MACs probed");
+    private static final Metrics.Counter STAGE1_PROBES = Metrics.counter(
+            "lanmarker_probes_total", "BSSID probes sent, by SOP stage", "stage", "1");
+    private static final Metrics.Counter STAGE2_PROBES = Metrics.counter(
+            "lanmarker_probes_total", "BSSID probes sent, by SOP stage", "stage", "2");
+    private static final Metrics.Counter STAGE1_SELECTIONS = Metrics.counter(
+            "lanmarker_stage1_selections_total", "WAN MACs located from stage 1 alone");
+    private static final Metrics.Counter ESCALATIONS = Metrics.counter(
+            "lanmarker_stage2_escalations_total", "WAN MACs that needed stage 2");
+    private static final Metrics.Counter CACHE_HITS = Metrics.counter(
+            "lanmarker_bssid_cache_total", "BSSID lookups in the in-memory cache", "result", "hit");
+    private static final Metrics.Counter CACHE_MISSES = Metrics.counter(
+            "lanmarker_bssid_cache_total", "BSSID lookups in the in-memory cache", "result", "miss");
+    private static final Metrics.Counter LOCAL_HITS = Metrics.counter(
+            "lanmarker_bssid_local_hits_total", "Cache misses answered by a local BSSID database");
+    private static final Metrics.Counter NEGATIVE_SKIPS = Metrics.counter(
+            "lanmarker_bssid_negative_skips_total", "Cache misses skipped as known WiGLE misses");
+    private static final LatencyHistogram WIGLE_LATENCY = Metrics.histogram(
+            "lanmarker_wigle_request_seconds", "WiGLE round trip, not counting the scheduler queue");
+    private static final Metrics.Counter WIGLE_2XX = wigleResponses("2xx");
+    private static final Metrics.Counter WIGLE_429 = wigleResponses("429");
+    private static final Metrics.Counter WIGLE_4XX = wigleResponses("4xx");
+    private static final Metrics.Counter WIGLE_5XX = wigleResponses("5xx");
+    private static final Metrics.Counter WIGLE_OTHER = wigleResponses("other");
+    private static final Metrics.Counter WIGLE_ERRORS = wigleResponses("error");
+
+    private static Metrics.Counter wigleResponses(String status) {
+        return Metrics.counter("lanmarker_wigle_responses_total", "WiGLE responses by HTTP status class",
+                "status", status);
+    }
+
+    /** The response counter for an HTTP status; 429 is kept apart from the other 4xx. */
+    private static Metrics.Counter wigleResponses(int status) {
+        if (status == 429) return WIGLE_429;
+        switch (status / 100) {
+            case 2: return WIGLE_2XX;
+            case 4: return WIGLE_4XX;
+            case 5: return WIGLE_5XX;
+            default: return WIGLE_OTHER;
+        }
+    }
 
-    private static final List<Integer> HIGH_PROBABILITY_OFFSETS = Arrays.asList(-1, 5, 0);
-    private static final List<Integer> LOW_PROBABILITY_OFFSETS = Arrays.asList(
-        3, -2, -8, 1, 6, 2, -4, -3, -5, -6, -7, 4, 7, 8
-    );
+    /**
+     * Thrown (inside the future) when WiGLE couldn't be asked or gave no usable
+     * answer, as opposed to answering that it has no location.
+     */
+    public static class WigleLookupException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public WigleLookupException(String message) {
+            super(message);
+        }
+    }
 
     public static class LocationHit {
         public final double latitude;
@@ -48,27 +152,166 @@ public class LocationFinder {
         String message; // Added for debugging
     }
 
+    /**
+     * Uses the 'bssid_cache' collection as the persistent cache tier.
+     */
     public LocationFinder() {
+        this(new BssidCacheStore(DatabaseManager.getCacheCollection(), CACHE_EXPIRE_DAYS, TimeUnit.DAYS));
+    }
+
+    /**
+     * @param cacheStore persistent tier to warm from and write through to, or null for memory only.
+     */
+    public LocationFinder(BssidCacheStore cacheStore) {
+        this(cacheStore, WIGLE_API_URL, new WigleRequestScheduler(
+                WIGLE_MAX_REQUESTS_PER_SECOND, WIGLE_MAX_IN_FLIGHT, WIGLE_DAILY_QUOTA));
+    }
+
+    /**
+     * @param cacheStore persistent tier, or null for memory only.
+     * @param wigleApiUrl the network/detail endpoint to query.
+     * @param scheduler rate/quota limits for that endpoint.
+     */
+    public LocationFinder(BssidCacheStore cacheStore, String wigleApiUrl, WigleRequestScheduler scheduler) {
+        this.wigleApiUrl = wigleApiUrl;
         this.httpClient = HttpClient.newBuilder()
                 .version(HttpClient.Version.HTTP_2)
                 .connectTimeout(Duration.ofSeconds(10))
                 .build();
         this.gson = new Gson();
-        this.bssidCache = Caffeine.newBuilder()
-                .expireAfterWrite(30, TimeUnit.DAYS)
-                .maximumSize(1_000_000)
-                .build();
+        this.scheduler = scheduler;
+        this.bssidCache = new BssidCache(CACHE_MAX_SIZE, CACHE_EXPIRE_DAYS, TimeUnit.DAYS);
+        this.cacheStore = cacheStore;
+        if (cacheStore != null) {
+            cacheStore.preload(bssidCache, CACHE_MAX_SIZE, CACHE_PRELOAD_BUDGET_MILLIS);
+        }
+        this.negativeFilter = new NegativeBssidFilter(NEGATIVE_EXPECTED_ENTRIES,
+                NEGATIVE_FALSE_POSITIVE_RATE, NEGATIVE_TTL_DAYS, TimeUnit.DAYS);
+        try {
+            if (negativeFilter.load(NEGATIVE_FILTER_FILE)) {
+                System.out.println("Loaded negative BSSID filter from " + NEGATIVE_FILTER_FILE);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not load negative BSSID filter: " + e.getMessage());
+        }
+        for (String path : LOCAL_DATABASES.split(",")) {
+            if (path.isBlank()) continue;
+            try {
+                LocalBssidDatabase database = new LocalBssidDatabase(Paths.get(path.trim()));
+                addLocationSource(database);
+                System.out.printf("Opened local BSSID database %s (%,d records)%n", path.trim(), database.size());
+            } catch (IOException e) {
+                System.out.println("Could not open local BSSID database " + path.trim() + ": " + e.getMessage());
+            }
+        }
+        try {
+            if (offsetPlanner.load(OFFSET_HISTOGRAM_FILE)) {
+                System.out.println("Loaded offset histograms for " + offsetPlanner.ouiCount() + " OUIs");
+            }
+        } catch (IOException e) {
+            System.out.println("Could not load offset histograms: " + e.getMessage());
+        }
+        registerMetrics();
+    }
+
+    // What the components already count is read at scrape time; the last LocationFinder built wins.
+    private void registerMetrics() {
+        Metrics.gauge("lanmarker_bssid_cache_entries", "Entries in the in-memory BSSID cache", bssidCache::size);
+        Metrics.counter("lanmarker_wigle_requests_total", "Requests sent to WiGLE", scheduler::sentCount);
+        Metrics.counter("lanmarker_wigle_throttled_total", "WiGLE 429/5xx responses", scheduler::throttledCount);
+        Metrics.counter("lanmarker_wigle_over_quota_total", "Requests refused by the daily quota",
+                scheduler::rejectedCount);
+        Metrics.gauge("lanmarker_wigle_queue_depth", "Requests waiting for the scheduler", scheduler::queueDepth);
+        Metrics.gauge("lanmarker_wigle_in_flight", "Requests sent and not yet answered", scheduler::inFlightCount);
+        Metrics.gauge("lanmarker_wigle_rate", "Current WiGLE request rate limit (req/s)", scheduler::currentRate);
+        Metrics.counter("lanmarker_wigle_coalesced_total", "BSSID lookups that joined a request already in flight",
+                wigleFlights::coalescedCount);
+        Metrics.gauge("lanmarker_offset_probes_saved", "Estimated probes saved by the learned offset order",
+                offsetPlanner::estimatedProbesSaved);
+    }
+
+    /**
+     * Writes pending entries to the persistent cache tier and saves the negative filter
+     * and offset histograms.
+     */
+    public void flush() {
+        if (cacheStore != null) {
+            cacheStore.flush();
+        }
+        try {
+            negativeFilter.save(NEGATIVE_FILTER_FILE);
+        } catch (IOException e) {
+            System.out.println("Could not save negative BSSID filter: " + e.getMessage());
+        }
+        try {
+            offsetPlanner.save(OFFSET_HISTOGRAM_FILE);
+        } catch (IOException e) {
+            System.out.println("Could not save offset histograms: " + e.getMessage());
+        }
+        System.out.printf("Negative BSSID filter: %,d misses recorded, %,d probes saved%n",
+                negativeFilter.addedCount(), negativeFilter.probesSaved());
+        System.out.println("WiGLE scheduler: " + scheduler);
+        System.out.printf("WiGLE coalescing: %,d requests issued, %,d coalesced (ratio %.1f%%), %,d abandoned%n",
+                wigleFlights.issuedCount(), wigleFlights.coalescedCount(), wigleFlights.coalescingRatio() * 100,
+                wigleFlights.abandonedCount());
+        System.out.println("Offset planner: " + offsetPlanner);
+        for (LocationSource source : localSources) {
+            System.out.println("Location source " + source);
+        }
+    }
+
+    public WigleRequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public OffsetPlanner getOffsetPlanner() {
+        return offsetPlanner;
+    }
+
+    /**
+     * Adds a source that is asked (in the order added) after the cache and before WiGLE.
+     */
+    public void addLocationSource(LocationSource source) {
+        localSources.add(source);
+    }
+
+    /**
+     * With the remote API disabled, BSSIDs missing from the cache and local sources count as misses.
+     */
+    public void setRemoteEnabled(boolean remoteEnabled) {
+        this.remoteEnabled = remoteEnabled;
+    }
+
+    public void setProbingMode(ProbingMode probingMode) {
+        this.probingMode = probingMode;
+    }
+
+    public ProbingMode getProbingMode() {
+        return probingMode;
+    }
+
+    /**
+     * Finds the location hits for a WAN MAC with the configured probing mode.
+     */
+    public CompletableFuture<List<LocationHit>> probe(long wanMac) {
+        return probingMode == ProbingMode.INCREMENTAL
+                ? incrementalQueryAlgorithm(wanMac)
+                : stagedQueryAlgorithm(wanMac);
     }
 
     public CompletableFuture<List<LocationHit>> stagedQueryAlgorithm(byte[] wanMac) {
-        
-        Map<Integer, String> allBssids = MacUtils.getPotentialBssidsWithOffsets(wanMac);
+        return stagedQueryAlgorithm(MacUtils.bytesToLong(wanMac));
+    }
+
+    public CompletableFuture<List<LocationHit>> stagedQueryAlgorithm(long wanMacLong) {
+
+        // Per-vendor order and stage-1 size; the static {-1, 5, 0} / rest split until learned.
+        OffsetPlanner.Plan plan = offsetPlanner.plan(wanMacLong);
 
         List<CompletableFuture<LocationHit>> stage1Futures = new ArrayList<>();
-        for (int offset : HIGH_PROBABILITY_OFFSETS) {
-            if (allBssids.containsKey(offset)) {
-                stage1Futures.add(queryBssid(allBssids.get(offset), offset));
-            }
+        for (int i = 0; i < plan.stage1Size; i++) {
+            int offset = plan.offsets[i];
+            stage1Futures.add(queryBssid(MacUtils.bssidAt(wanMacLong, offset), offset));
         }
 
         return CompletableFuture.allOf(stage1Futures.toArray(new CompletableFuture[0]))
@@ -82,14 +325,15 @@ public class LocationFinder {
                     CoordinateFilter.clusterAndSelect(stage1Results, 1.0, 2);
 
                 if (bestHitStage1 != null) {
+                    offsetPlanner.record(wanMacLong, plan, plan.stage1Size, stage1Results, bestHitStage1);
+                    recordProbeMetrics(plan, plan.stage1Size, true);
                     return CompletableFuture.completedFuture(stage1Results);
                 }
 
                 List<CompletableFuture<LocationHit>> stage2Futures = new ArrayList<>();
-                for (int offset : LOW_PROBABILITY_OFFSETS) {
-                    if (allBssids.containsKey(offset)) {
-                        stage2Futures.add(queryBssid(allBssids.get(offset), offset));
-                    }
+                for (int i = plan.stage1Size; i < plan.offsets.length; i++) {
+                    int offset = plan.offsets[i];
+                    stage2Futures.add(queryBssid(MacUtils.bssidAt(wanMacLong, offset), offset));
                 }
 
                 return CompletableFuture.allOf(stage2Futures.toArray(new CompletableFuture[0]))
@@ -99,65 +343,303 @@ public class LocationFinder {
                             .map(future -> future.getNow(null))
                             .filter(hit -> hit != null)
                             .forEach(allResults::add);
-                        
+
+                        LocationHit best = CoordinateFilter.clusterAndSelect(allResults, 1.0, 2);
+                        offsetPlanner.record(wanMacLong, plan, plan.offsets.length, allResults, best);
+                        recordProbeMetrics(plan, plan.offsets.length, best != null);
                         return allResults;
                     });
             });
     }
 
-    private CompletableFuture<LocationHit> queryBssid(String bssid, int offset) {
-        LocationHit cachedHit = bssidCache.getIfPresent(bssid);
-        if (cachedHit != null) {
+    /**
+     * Incremental Staged Offset Probing.
+     *
+     * Stage 1 is probed at once, as in stagedQueryAlgorithm. After that the
+     * remaining offsets go out in plan order through a sliding window of
+     * INCREMENTAL_WINDOW probes. Every hit is fed to the cluster check as it
+     * arrives; as soon as the hits contain a dense cluster (or stage 1 alone
+     * selects a hit) no further probes are sent and the ones still queued are
+     * cancelled.
+     */
+    public CompletableFuture<List<LocationHit>> incrementalQueryAlgorithm(long wanMac) {
+        IncrementalProbe probe = new IncrementalProbe(wanMac, offsetPlanner.plan(wanMac));
+        probe.pump();
+        return probe.result;
+    }
+
+    private final class IncrementalProbe {
+        final long wanMac;
+        final OffsetPlanner.Plan plan;
+        final CompletableFuture<List<LocationHit>> result = new CompletableFuture<>();
+
+        // guarded by 'this'
+        private final List<LocationHit> hits = new ArrayList<>();
+        private final List<CompletableFuture<LocationHit>> probes = new ArrayList<>();
+        private int next;
+        private int pending;
+        private int stage1Remaining;
+        private boolean done;
+
+        IncrementalProbe(long wanMac, OffsetPlanner.Plan plan) {
+            this.wanMac = wanMac;
+            this.plan = plan;
+            this.stage1Remaining = plan.stage1Size;
+        }
+
+        /** Sends probes until the window is full. */
+        void pump() {
+            while (true) {
+                int index;
+                synchronized (this) {
+                    boolean maySend = next < plan.stage1Size
+                            || (stage1Remaining == 0 && pending < INCREMENTAL_WINDOW);
+                    if (done || next >= plan.offsets.length || !maySend) return;
+                    index = next++;
+                    pending++;
+                }
+
+                int offset = plan.offsets[index];
+                CompletableFuture<LocationHit> probe = queryBssid(MacUtils.bssidAt(wanMac, offset), offset);
+                boolean lateCancel;
+                synchronized (this) {
+                    lateCancel = done;
+                    if (!done) probes.add(probe);
+                }
+                if (lateCancel) {
+                    probe.cancel(false);
+                    return;
+                }
+                probe.whenComplete((hit, error) -> {
+                    if (error != null && !probe.isCancelled()) {
+                        onProbeFailed(error);
+                    } else {
+                        onProbeDone(index, error == null ? hit : null);
+                    }
+                });
+            }
+        }
+
+        private void onProbeDone(int index, LocationHit hit) {
+            List<LocationHit> found;
+            List<CompletableFuture<LocationHit>> toCancel;
+            int sent;
+            synchronized (this) {
+                if (done) return;
+                pending--;
+                if (hit != null) hits.add(hit);
+                boolean stage1JustDone = index < plan.stage1Size && --stage1Remaining == 0;
+
+                boolean finished = (pending == 0 && next >= plan.offsets.length)
+                        || (hit != null && CoordinateFilter.selectFromClusters(
+                                hits, CLUSTER_EPSILON_KM, CLUSTER_MIN_POINTS) != null)
+                        || (stage1JustDone && CoordinateFilter.clusterAndSelect(
+                                hits, CLUSTER_EPSILON_KM, CLUSTER_MIN_POINTS) != null);
+                if (!finished) {
+                    found = null;
+                    toCancel = null;
+                    sent = 0;
+                } else {
+                    done = true;
+                    found = new ArrayList<>(hits);
+                    toCancel = new ArrayList<>(probes);
+                    sent = next;
+                }
+            }
+
+            if (found == null) {
+                pump();
+                return;
+            }
+            for (CompletableFuture<LocationHit> probe : toCancel) {
+                probe.cancel(false); // no-op for the ones that already completed
+            }
+            LocationHit selected = CoordinateFilter.clusterAndSelect(found, CLUSTER_EPSILON_KM, CLUSTER_MIN_POINTS);
+            offsetPlanner.record(wanMac, plan, sent, found, selected);
+            recordProbeMetrics(plan, sent, selected != null);
+            result.complete(found);
+        }
+
+        /** A probe failed (e.g. still throttled after its retries): the whole lookup fails. */
+        private void onProbeFailed(Throwable error) {
+            List<CompletableFuture<LocationHit>> toCancel;
+            synchronized (this) {
+                if (done) return;
+                done = true;
+                toCancel = new ArrayList<>(probes);
+            }
+            for (CompletableFuture<LocationHit> probe : toCancel) {
+                probe.cancel(false);
+            }
+            result.completeExceptionally(error);
+        }
+    }
+
+    private static void recordProbeMetrics(OffsetPlanner.Plan plan, int sent, boolean selected) {
+        MAC_LOOKUPS.inc();
+        int stage1 = Math.min(sent, plan.stage1Size);
+        STAGE1_PROBES.add(stage1);
+        if (sent > stage1) {
+            ESCALATIONS.inc();
+            STAGE2_PROBES.add(sent - stage1);
+        } else if (selected) {
+            STAGE1_SELECTIONS.inc();
+        }
+    }
+
+    private CompletableFuture<LocationHit> queryBssid(long bssidKey, int offset) {
+        long cached = bssidCache.get(bssidKey);
+        if (cached != PackedLatLon.NONE) {
+            CACHE_HITS.inc();
+            if (cacheStore != null) cacheStore.recordUse(bssidKey);
             return CompletableFuture.completedFuture(
-                new LocationHit(cachedHit.latitude, cachedHit.longitude, offset)
+                new LocationHit(PackedLatLon.latitude(cached), PackedLatLon.longitude(cached), offset)
             );
         }
 
+        CACHE_MISSES.inc();
+
+        // Offline dumps answer without touching the network or the quota.
+        for (LocationSource source : localSources) {
+            long packed = source.lookup(bssidKey);
+            if (packed != PackedLatLon.NONE) {
+                LOCAL_HITS.inc();
+                return CompletableFuture.completedFuture(
+                    new LocationHit(PackedLatLon.latitude(packed), PackedLatLon.longitude(packed), offset)
+                );
+            }
+        }
+        if (!remoteEnabled) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Known empty: don't even build the request.
+        if (negativeFilter.mightContain(bssidKey)) {
+            negativeFilter.recordProbeSaved();
+            NEGATIVE_SKIPS.inc();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Neighbouring MACs probe the same BSSIDs at the same time: share one request.
+        CompletableFuture<Long> flight = wigleFlights.run(bssidKey, () -> fetchFromWigle(bssidKey));
+        CompletableFuture<LocationHit> hit = flight
+                .thenApply(packed -> packed == PackedLatLon.NONE ? null
+                        : new LocationHit(PackedLatLon.latitude(packed), PackedLatLon.longitude(packed), offset));
+        cancelUpstream(hit, flight);
+        return hit;
+    }
+
+    private static void cancelUpstream(CompletableFuture<?> downstream, CompletableFuture<?> upstream) {
+        downstream.whenComplete((value, error) -> {
+            if (downstream.isCancelled()) upstream.cancel(false);
+        });
+    }
+
+    /**
+     * Queries WiGLE for one BSSID.
+     *
+     * @return the packed coordinate, or {@link PackedLatLon#NONE} if WiGLE has
+     *         none. Fails instead when WiGLE couldn't answer: over quota
+     *         (ours or WiGLE's), throttled, unreachable, or a bad reply.
+     */
+    private CompletableFuture<Long> fetchFromWigle(long bssidKey) {
+        // A flight for this BSSID may have finished just before we started ours.
+        long cached = bssidCache.get(bssidKey);
+        if (cached != PackedLatLon.NONE) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        // Only a cache miss needs the string form (for the WiGLE netid and logs).
+        String bssid = MacUtils.macToHex(bssidKey);
         try {
             HttpRequest request = HttpRequest.newBuilder()
-                    .uri(new URI(WIGLE_API_URL + "?netid=" + bssid.replace(":", "")))
+                    .uri(new URI(wigleApiUrl + "?netid=" + bssid))
                     .header("Authorization", WIGLE_API_AUTH_TOKEN)
                     .header("Accept", "application/json")
                     .timeout(Duration.ofSeconds(5))
                     .build();
 
-            return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
-                    .thenApply(response -> {
-                        
-                        if (response.statusCode() != 200) {
-                            System.out.println("WIGLE API DEBUG: BSSID " + bssid + " -> HTTP Status " + response.statusCode());
-                            if (response.statusCode() == 401) {
+            // The scheduler decides when the request actually goes out.
+            CompletableFuture<HttpResponse<String>> sent = scheduler.submit(() -> {
+                long startNanos = System.nanoTime();
+                return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                        .whenComplete((response, error) -> {
+                            WIGLE_LATENCY.recordSince(startNanos);
+                            (error != null ? WIGLE_ERRORS : wigleResponses(response.statusCode())).inc();
+                        });
+            });
+            // Only a real "no location" answer is a miss; everything else fails the lookup,
+            // so the import doesn't record the MAC as having no landmark.
+            CompletableFuture<Long> parsed = sent.thenApply(response -> {
+                        int status = response.statusCode();
+                        if (status == 404) {
+                            negativeFilter.add(bssidKey);
+                            return PackedLatLon.NONE;
+                        }
+                        if (status != 200) {
+                            if (status == 401) {
                                 System.out.println("WIGLE API DEBUG: **** HTTP 401 UNAUTHORIZED. YOUR API TOKEN IS WRONG. ****");
                             }
+                            throw new WigleLookupException("WiGLE answered HTTP " + status + " for " + bssid);
                         }
 
-                        if (response.statusCode() == 200) {
-                             try {
-                                WigleResponse wigleData = gson.fromJson(response.body(), WigleResponse.class);
-                                if (wigleData.success && wigleData.results != null) {
-                                    Double lat = (Double) wigleData.results.get("trilat");
-                                    Double lon = (Double) wigleData.results.get("trilong");
-                                    if (lat != null && lon != null && lat != 0 && lon != 0) {
-                                        LocationHit newHit = new LocationHit(lat, lon, offset);
-                                        bssidCache.put(bssid, newHit); 
-                                        return newHit;
-                                    }
-                                } else if (!wigleData.success) {
-                                    System.out.println("WIGLE API DEBUG: BSSID " + bssid + " -> Success=false. Message: " + wigleData.message);
-                                }
-                            } catch (Exception e) {
-                                System.out.println("WIGLE API DEBUG: BSSID " + bssid + " -> JSON Parse Error: " + e.getMessage());
+                        WigleResponse wigleData;
+                        try {
+                            wigleData = gson.fromJson(response.body(), WigleResponse.class);
+                        } catch (RuntimeException e) {
+                            throw new WigleLookupException("Unreadable WiGLE reply for " + bssid + ": " + e.getMessage());
+                        }
+                        if (wigleData == null) {
+                            throw new WigleLookupException("Empty WiGLE reply for " + bssid);
+                        }
+                        if (!wigleData.success) {
+                            if (isQuotaMessage(wigleData.message)) {
+                                throw new WigleRequestScheduler.QuotaExhaustedException(
+                                        "WiGLE refused the query: " + wigleData.message);
+                            }
+                            System.out.println("WIGLE API DEBUG: BSSID " + bssid + " -> Success=false. Message: " + wigleData.message);
+                            negativeFilter.add(bssidKey);
+                            return PackedLatLon.NONE;
+                        }
+                        if (quotaExhausted.get()) {
+                            quotaExhausted.set(false);
+                            System.out.println("WiGLE is answering again.");
+                        }
+                        if (wigleData.results != null) {
+                            Double lat = (Double) wigleData.results.get("trilat");
+                            Double lon = (Double) wigleData.results.get("trilong");
+                            if (lat != null && lon != null && lat != 0 && lon != 0) {
+                                long packed = PackedLatLon.pack(lat, lon);
+                                bssidCache.put(bssidKey, packed);
+                                if (cacheStore != null) cacheStore.recordHit(bssidKey, packed);
+                                return packed;
                             }
                         }
-                        return null;
+                        negativeFilter.add(bssidKey); // no usable coordinates
+                        return PackedLatLon.NONE;
                     })
-                    .exceptionally(e -> {
-                        System.out.println("WIGLE API DEBUG: BSSID " + bssid + " -> Network Error: " + e.getMessage());
-                        return null;
+                    .whenComplete((packed, e) -> {
+                        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        if (cause instanceof WigleRequestScheduler.QuotaExhaustedException
+                                && quotaExhausted.compareAndSet(false, true)) {
+                            System.out.println("WiGLE quota exhausted, lookups fail until it resets: "
+                                    + cause.getMessage());
+                        }
                     });
+
+            // Cancelling the caller's copy withdraws the request if it is still queued;
+            // a response that is already on its way is still parsed and cached.
+            CompletableFuture<Long> result = parsed.copy();
+            cancelUpstream(result, sent);
+            return result;
         } catch (Exception e) {
             System.out.println("WIGLE API DEBUG: BSSID " + bssid + " -> URI Syntax Error: " + e.getMessage());
-            return CompletableFuture.completedFuture(null);
+            return CompletableFuture.completedFuture(PackedLatLon.NONE);
         }
     }
+
+    // WiGLE also answers success=false when the daily query limit is hit; that is not a miss.
+    private static boolean isQuotaMessage(String message) {
+        return message != null && (message.toLowerCase().contains("too many") || message.toLowerCase().contains("limit"));
+    }
 }
\ No newline at end of file
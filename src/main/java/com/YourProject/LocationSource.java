@@ -0,0 +1,18 @@
+package com.yourproject;
+
+/**
+ * A place LocationFinder can look up BSSID coordinates before falling back
+ * to the WiGLE API. Implementations must be safe to call from many threads
+ * and should answer without blocking on the network.
+ */
+public interface LocationSource {
+
+    /**
+     * @param bssid the 48-bit BSSID
+     * @return the coordinate as a {@link PackedLatLon}, or {@link PackedLatLon#NONE} if unknown.
+     */
+    long lookup(long bssid);
+
+    /** Short name for logs and stats. */
+    String name();
+}
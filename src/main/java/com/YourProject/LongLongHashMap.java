@@ -0,0 +1,188 @@
+package com.yourproject;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing long -> long hash map (linear probing, no boxing).
+ * Not thread-safe; callers stripe or synchronize around it.
+ */
+public final class LongLongHashMap {
+
+    /** Returned by {@link #get} and {@link #put} when there is no mapping. */
+    public static final long NO_VALUE = Long.MIN_VALUE;
+
+    private static final long EMPTY_KEY = 0L;
+    private static final double MAX_LOAD = 0.6;
+
+    public interface Visitor {
+        void visit(long key, long value);
+    }
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    // Key 0 is the empty marker, so its mapping lives outside the table.
+    private boolean hasZeroKey;
+    private long zeroValue;
+
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        allocate(tableSizeFor((int) Math.ceil(Math.max(4, expectedSize) / MAX_LOAD)));
+    }
+
+    public long get(long key) {
+        if (key == EMPTY_KEY) return hasZeroKey ? zeroValue : NO_VALUE;
+        int slot = slot(key);
+        while (true) {
+            long k = keys[slot];
+            if (k == key) return values[slot];
+            if (k == EMPTY_KEY) return NO_VALUE;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (key == EMPTY_KEY) return hasZeroKey;
+        return findSlot(key) >= 0;
+    }
+
+    /**
+     * @return the previous value, or {@link #NO_VALUE}.
+     */
+    public long put(long key, long value) {
+        if (key == EMPTY_KEY) {
+            long previous = hasZeroKey ? zeroValue : NO_VALUE;
+            if (!hasZeroKey) size++;
+            hasZeroKey = true;
+            zeroValue = value;
+            return previous;
+        }
+        int slot = slot(key);
+        while (true) {
+            long k = keys[slot];
+            if (k == key) {
+                long previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            if (k == EMPTY_KEY) {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size > resizeAt) rehash(keys.length * 2);
+                return NO_VALUE;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Removes the mapping, shifting later entries back so no tombstones are needed.
+     *
+     * @return the removed value, or {@link #NO_VALUE}.
+     */
+    public long remove(long key) {
+        if (key == EMPTY_KEY) {
+            if (!hasZeroKey) return NO_VALUE;
+            hasZeroKey = false;
+            size--;
+            return zeroValue;
+        }
+        int slot = findSlot(key);
+        if (slot < 0) return NO_VALUE;
+        long removed = values[slot];
+        size--;
+
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (keys[next] != EMPTY_KEY) {
+            int home = slot(keys[next]);
+            // Move the entry into the gap if its home slot is not between gap and next.
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY_KEY;
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY_KEY);
+        hasZeroKey = false;
+        size = 0;
+    }
+
+    public void forEach(Visitor visitor) {
+        if (hasZeroKey) visitor.visit(EMPTY_KEY, zeroValue);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY_KEY) visitor.visit(keys[i], values[i]);
+        }
+    }
+
+    // --- Internals ---
+
+    private int findSlot(long key) {
+        int slot = slot(key);
+        while (true) {
+            long k = keys[slot];
+            if (k == key) return slot;
+            if (k == EMPTY_KEY) return -1;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int slot(long key) {
+        return (int) mix(key) & mask;
+    }
+
+    /** Stafford variant 13 of the MurmurHash3 finalizer. */
+    static long mix(long key) {
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        return key ^ (key >>> 31);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * MAX_LOAD);
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long k = oldKeys[i];
+            if (k != EMPTY_KEY) {
+                int slot = slot(k);
+                while (keys[slot] != EMPTY_KEY) slot = (slot + 1) & mask;
+                keys[slot] = k;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int tableSizeFor(int n) {
+        int size = Integer.highestOneBit(Math.max(2, n - 1)) << 1;
+        if (size <= 0) throw new IllegalArgumentException("Map too large: " + n);
+        return size;
+    }
+}
@@ -0,0 +1,365 @@
+package com.yourproject;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Off-heap open-addressing map from a 48-bit WAN MAC to a small state
+ * (1..32767), shared by all import threads.
+ *
+ * Every slot is one long in a direct ByteBuffer: bits 0-47 hold the MAC,
+ * bit 48 marks the slot as used and bits 49-63 hold the state, so an empty
+ * slot is 0 and inserts and state changes are a single CAS (via a VarHandle
+ * view of the buffer). Slots are spread over segments of at most 1 GiB, so
+ * the table can hold billions of entries without touching the Java heap; at
+ * 50% load that is 16 bytes per MAC. Entries are never removed.
+ *
+ * The table starts at the size it is given and doubles (rehashing under a
+ * write lock; the usual operations only take the read side of a StampedLock)
+ * whenever it is half full, as long as the new size fits in
+ * {@code maxOffHeapBytes}. Past that, or if the JVM refuses the direct memory,
+ * it stays put and {@link #putIfAbsent} returns {@link #FULL} once no free
+ * slot is near. The memory counts against -XX:MaxDirectMemorySize (which
+ * defaults to -Xmx); growing briefly needs the old and the new table.
+ * {@link #release} gives it back as soon as the table isn't needed, rather
+ * than whenever GC gets to the buffers.
+ */
+public class MacDedupTable {
+
+    public static final int ABSENT = 0;
+    /** Returned by {@link #putIfAbsent} when no free slot is left. */
+    public static final int FULL = -1;
+    public static final int MAX_STATE = (1 << 15) - 1;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final long MAC_MASK = 0xFFFF_FFFF_FFFFL;
+    private static final long USED = 1L << 48;
+    private static final int STATE_SHIFT = 49;
+    private static final int SEGMENT_SLOT_BITS = 27; // 2^27 slots * 8 bytes = 1 GiB per segment
+    private static final int MAX_PROBES = 1 << 12;
+    private static final long MIN_SLOTS = 16;
+
+    // sun.misc.Unsafe.invokeCleaner, to give direct memory back without waiting for GC (null if unavailable).
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Old buffers are then freed by GC.
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final long maxSlots;
+    private final StampedLock lock = new StampedLock();
+    private final AtomicLong size = new AtomicLong();
+
+    // Replaced when the table grows; guarded by 'lock'.
+    private ByteBuffer[] allocations; // what allocateDirect returned, for freeing
+    private ByteBuffer[] segments;    // 8-byte aligned slices of the allocations
+    private long mask;
+    private int segmentSlotBits;
+    private volatile boolean growthStopped = false;
+
+    /**
+     * Sized for {@code expectedMacs} at no more than 50% load, without a limit on growth.
+     */
+    public MacDedupTable(long expectedMacs) {
+        this(expectedMacs, Long.MAX_VALUE);
+    }
+
+    /**
+     * Sized for {@code initialMacs} at no more than 50% load (but never more
+     * than {@code maxOffHeapBytes}), growing up to {@code maxOffHeapBytes}.
+     */
+    public MacDedupTable(long initialMacs, long maxOffHeapBytes) {
+        this.maxSlots = Math.max(MIN_SLOTS, Long.highestOneBit(Math.max(MIN_SLOTS, maxOffHeapBytes / Long.BYTES)));
+        long slots = Long.highestOneBit(Math.max(MIN_SLOTS, initialMacs * 2 - 1)) << 1;
+        allocate(Math.min(slots, maxSlots));
+    }
+
+    /**
+     * Inserts {@code mac} with {@code state} unless it is already present.
+     *
+     * @return {@link #ABSENT} if this call inserted it, the current state if
+     *         it was already there, or {@link #FULL}.
+     */
+    public int putIfAbsent(long mac, int state) {
+        checkState(state);
+        while (true) {
+            long capacity;
+            int result;
+            long stamp = lock.readLock();
+            try {
+                checkNotReleased();
+                capacity = mask + 1;
+                result = insert(mac, state);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            if (result == FULL) {
+                if (growthStopped || !grow(capacity)) return FULL;
+                continue; // try again in the bigger table
+            }
+            if (result == ABSENT && !growthStopped && size.get() > capacity / 2) {
+                grow(capacity);
+            }
+            return result;
+        }
+    }
+
+    /** The state of {@code mac}, or {@link #ABSENT}. */
+    public int get(long mac) {
+        long stamp = lock.readLock();
+        try {
+            checkNotReleased();
+            long key = (mac & MAC_MASK) | USED;
+            long slot = LongLongHashMap.mix(mac & MAC_MASK) & mask;
+            for (int probe = 0; probe < MAX_PROBES; probe++, slot = (slot + 1) & mask) {
+                long current = (long) LONGS.getVolatile(segment(slot), offset(slot));
+                if (current == 0) return ABSENT;
+                if ((current & (MAC_MASK | USED)) == key) return (int) (current >>> STATE_SHIFT);
+            }
+            return ABSENT;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Changes the state of a present {@code mac} from {@code expected} to {@code state}.
+     *
+     * @return false if it isn't present or its state isn't {@code expected}.
+     */
+    public boolean replace(long mac, int expected, int state) {
+        checkState(state);
+        long stamp = lock.readLock();
+        try {
+            checkNotReleased();
+            long key = (mac & MAC_MASK) | USED;
+            long slot = LongLongHashMap.mix(mac & MAC_MASK) & mask;
+            for (int probe = 0; probe < MAX_PROBES; probe++, slot = (slot + 1) & mask) {
+                ByteBuffer segment = segment(slot);
+                int offset = offset(slot);
+                long current = (long) LONGS.getVolatile(segment, offset);
+                if (current == 0) return false;
+                if ((current & (MAC_MASK | USED)) == key) {
+                    return (int) (current >>> STATE_SHIFT) == expected
+                            && LONGS.compareAndSet(segment, offset, current, key | (long) state << STATE_SHIFT);
+                }
+            }
+            return false;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /** Removes every entry, keeping the memory (no other operation may run at the same time). */
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            checkNotReleased();
+            long segmentSlots = 1L << segmentSlotBits;
+            for (ByteBuffer segment : segments) {
+                for (long s = 0; s < segmentSlots; s++) {
+                    LONGS.set(segment, (int) (s << 3), 0L);
+                }
+            }
+            size.set(0);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Frees the off-heap memory now. The table can't be used afterwards;
+     * {@link #size} still returns the last size.
+     */
+    public void release() {
+        long stamp = lock.writeLock();
+        try {
+            if (segments == null) return;
+            free(allocations);
+            allocations = null;
+            segments = null;
+            mask = -1; // capacity() == 0
+            growthStopped = true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public long size() {
+        return size.get();
+    }
+
+    public long capacity() {
+        long stamp = lock.readLock();
+        try {
+            return mask + 1;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public long offHeapBytes() {
+        return capacity() * Long.BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d MACs in %,d slots (%,d MiB off-heap)", size(), capacity(), offHeapBytes() >> 20);
+    }
+
+    // --- Slots (callers hold the lock) ---
+
+    private int insert(long mac, int state) {
+        long key = (mac & MAC_MASK) | USED;
+        long entry = key | (long) state << STATE_SHIFT;
+        long slot = LongLongHashMap.mix(mac & MAC_MASK) & mask;
+        for (int probe = 0; probe < MAX_PROBES; probe++, slot = (slot + 1) & mask) {
+            ByteBuffer segment = segment(slot);
+            int offset = offset(slot);
+            long current = (long) LONGS.getVolatile(segment, offset);
+            if (current == 0) {
+                if (LONGS.compareAndSet(segment, offset, 0L, entry)) {
+                    size.incrementAndGet();
+                    return ABSENT;
+                }
+                current = (long) LONGS.getVolatile(segment, offset); // lost the race for this slot
+            }
+            if ((current & (MAC_MASK | USED)) == key) {
+                return (int) (current >>> STATE_SHIFT);
+            }
+        }
+        return FULL;
+    }
+
+    private ByteBuffer segment(long slot) {
+        return segments[(int) (slot >>> segmentSlotBits)];
+    }
+
+    private int offset(long slot) {
+        return (int) (slot & ((1L << segmentSlotBits) - 1)) << 3;
+    }
+
+    // --- Growth ---
+
+    /**
+     * Doubles the table unless someone else already grew it past {@code seenCapacity}.
+     *
+     * @return false if it can't grow any more.
+     */
+    private boolean grow(long seenCapacity) {
+        long stamp = lock.writeLock();
+        try {
+            long capacity = mask + 1;
+            if (segments == null) return false; // released
+            if (capacity != seenCapacity) return true;
+            if (growthStopped || capacity * 2 > maxSlots) {
+                growthStopped = true;
+                return false;
+            }
+
+            ByteBuffer[] oldAllocations = allocations;
+            ByteBuffer[] oldSegments = segments;
+            long oldMask = mask;
+            int oldSegmentSlotBits = segmentSlotBits;
+            try {
+                allocate(capacity * 2);
+            } catch (OutOfMemoryError e) {
+                System.out.printf("MAC dedup table can't grow past %,d MiB (%s); see -XX:MaxDirectMemorySize%n",
+                        (capacity * Long.BYTES) >> 20, e.getMessage());
+                allocations = oldAllocations;
+                segments = oldSegments;
+                mask = oldMask;
+                segmentSlotBits = oldSegmentSlotBits;
+                growthStopped = true;
+                return false;
+            }
+
+            long oldSegmentSlots = 1L << oldSegmentSlotBits;
+            for (ByteBuffer segment : oldSegments) {
+                for (long s = 0; s < oldSegmentSlots; s++) {
+                    long entry = (long) LONGS.get(segment, (int) (s << 3));
+                    if (entry != 0) rehash(entry);
+                }
+            }
+            free(oldAllocations);
+            System.out.printf("MAC dedup table grown to %,d slots (%,d MiB off-heap)%n",
+                    mask + 1, ((mask + 1) * Long.BYTES) >> 20);
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Under the write lock: plain stores, published when it is released.
+    private void rehash(long entry) {
+        long slot = LongLongHashMap.mix(entry & MAC_MASK) & mask;
+        while ((long) LONGS.get(segment(slot), offset(slot)) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        LONGS.set(segment(slot), offset(slot), entry);
+    }
+
+    private void allocate(long slots) {
+        int bits = Math.min(SEGMENT_SLOT_BITS, Long.numberOfTrailingZeros(slots));
+        long segmentSlots = 1L << bits;
+        ByteBuffer[] newAllocations = new ByteBuffer[(int) (slots / segmentSlots)];
+        ByteBuffer[] newSegments = new ByteBuffer[newAllocations.length];
+        try {
+            for (int i = 0; i < newAllocations.length; i++) {
+                newAllocations[i] = ByteBuffer.allocateDirect((int) (segmentSlots * Long.BYTES) + Long.BYTES);
+                // alignedSlice: CAS through a VarHandle view needs 8-byte aligned longs.
+                newSegments[i] = newAllocations[i].alignedSlice(Long.BYTES);
+            }
+        } catch (OutOfMemoryError e) {
+            free(newAllocations);
+            throw e;
+        }
+        allocations = newAllocations;
+        segments = newSegments;
+        mask = slots - 1;
+        segmentSlotBits = bits;
+    }
+
+    private static void free(ByteBuffer[] buffers) {
+        if (INVOKE_CLEANER == null) return;
+        for (ByteBuffer buffer : buffers) {
+            if (buffer == null) continue;
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e) {
+                return; // left to GC
+            }
+        }
+    }
+
+    private void checkNotReleased() {
+        if (segments == null) {
+            throw new IllegalStateException("MacDedupTable was released");
+        }
+    }
+
+    private static void checkState(int state) {
+        if (state < 1 || state > MAX_STATE) {
+            throw new IllegalArgumentException("state must be in 1.." + MAX_STATE);
+        }
+    }
+}
@@ -13,8 +13,9 @@ public class MacUtils {
     public static final int MAC_48_BIT_LENGTH = 6;
     public static final int EUI_64_IID_LENGTH = 8;
     public static final int IPV6_BYTE_LENGTH = 16;
-    public static final int EUI_64_MAGIC_BYTE_1 = 8;
-    public static final int EUI_64_MAGIC_BYTE_2 = 9;
+    // ff:fe sits in the middle of the IID, i.e. bytes 3 and 4 of the IID (11 and 12 of the address)
+    public static final int EUI_64_MAGIC_BYTE_1 = 11;
+    public static final int EUI_64_MAGIC_BYTE_2 = 12;
 
     /**
      * Checks if an IPv6 address is likely in EUI-64 format.
@@ -51,37 +52,102 @@ public class MacUtils {
      * Uses the paper's validated offset range of [-8, +8].
      *
      * **THIS IS THE FIX:** Returns Map<Integer, String> to match LocationFinder.
+     * Hot paths should use {@link #getPotentialBssids(long, long[])} instead.
      */
     public static Map<Integer, String> getPotentialBssidsWithOffsets(byte[] wanMac) {
         Map<Integer, String> bssids = new HashMap<>();
         long wanMacLong = bytesToLong(wanMac);
 
-        for (int offset = -8; offset <= 8; offset++) {
-            long bssidLong = wanMacLong + offset;
-            bssids.put(offset, longToMacString(bssidLong));
+        for (int offset = MIN_OFFSET; offset <= MAX_OFFSET; offset++) {
+            bssids.put(offset, longToMacString(bssidAt(wanMacLong, offset)));
         }
         return bssids;
     }
 
+    // --- Primitive API (no boxing, no Strings) ---
+
+    public static final int MIN_OFFSET = -8;
+    public static final int MAX_OFFSET = 8;
+    public static final int OFFSET_COUNT = MAX_OFFSET - MIN_OFFSET + 1;
+    public static final long MAC_MASK = 0xFFFFFFFFFFFFL;
+
+    /**
+     * The BSSID at {@code offset} from the WAN MAC (48-bit wrap-around, like longToMacString).
+     */
+    public static long bssidAt(long wanMac, int offset) {
+        return (wanMac + offset) & MAC_MASK;
+    }
+
+    /**
+     * Fills {@code out[i]} with the BSSID at offset {@code MIN_OFFSET + i}.
+     * {@code out} must hold at least {@link #OFFSET_COUNT} entries.
+     */
+    public static long[] getPotentialBssids(long wanMac, long[] out) {
+        for (int i = 0; i < OFFSET_COUNT; i++) {
+            out[i] = bssidAt(wanMac, MIN_OFFSET + i);
+        }
+        return out;
+    }
+
+    /**
+     * Extracts the 48-bit WAN MAC from a 64-bit EUI-64 IID (see extractMacFromIid).
+     */
+    public static long macFromIid(long iid) {
+        long mac = ((iid >>> 16) & 0xFFFFFF000000L) | (iid & 0xFFFFFFL);
+        return mac ^ 0x020000000000L; // Flip the "global/local" bit
+    }
+
+    /**
+     * Writes the MAC as 12 hex digits, or 17 chars with {@code separator} between bytes
+     * (pass 0 for none). Returns the position after the last char written.
+     */
+    public static int writeMac(long mac, char[] buf, int pos, char separator) {
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int b = (int) (mac >>> shift) & 0xFF;
+            buf[pos++] = HEX_PAIRS[b * 2];
+            buf[pos++] = HEX_PAIRS[b * 2 + 1];
+            if (separator != 0 && shift > 0) buf[pos++] = separator;
+        }
+        return pos;
+    }
+
+    /** "aabbccddeeff" form, as used for the WiGLE netid. */
+    public static String macToHex(long mac) {
+        char[] buf = new char[12];
+        writeMac(mac, buf, 0, (char) 0);
+        return new String(buf);
+    }
+
+    // Two hex chars per byte value, so formatting is a table lookup.
+    private static final char[] HEX_PAIRS = new char[512];
+    static {
+        char[] digits = "0123456789abcdef".toCharArray();
+        for (int b = 0; b < 256; b++) {
+            HEX_PAIRS[b * 2] = digits[b >>> 4];
+            HEX_PAIRS[b * 2 + 1] = digits[b & 0xF];
+        }
+    }
+
     // --- Helper Methods ---
     
     public static String bytesToMacString(byte[] mac) {
         if (mac == null) return null;
-        StringBuilder sb = new StringBuilder();
+        if (mac.length == 0) return "";
+        char[] buf = new char[mac.length * 3 - 1];
+        int pos = 0;
         for (int i = 0; i < mac.length; i++) {
-            sb.append(String.format("%02x", mac[i]));
-            if (i < mac.length - 1) sb.append(":");
+            int b = mac[i] & 0xFF;
+            buf[pos++] = HEX_PAIRS[b * 2];
+            buf[pos++] = HEX_PAIRS[b * 2 + 1];
+            if (i < mac.length - 1) buf[pos++] = ':';
         }
-        return sb.toString();
+        return new String(buf);
     }
     
     public static String longToMacString(long macLong) {
-        byte[] macBytes = new byte[MAC_48_BIT_LENGTH];
-        for (int i = 5; i >= 0; i--) {
-            macBytes[i] = (byte) (macLong & 0xFF);
-            macLong >>= 8;
-        }
-        return bytesToMacString(macBytes);
+        char[] buf = new char[17];
+        writeMac(macLong, buf, 0, ':');
+        return new String(buf);
     }
     
     public static long bytesToLong(byte[] bytes) {
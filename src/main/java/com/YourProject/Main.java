@@ -2,6 +2,10 @@ package com.yourproject;
 
 import static spark.Spark.*;
 import com.google.gson.Gson;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 
 /**
@@ -22,24 +26,77 @@ public class Main {
         // Serve the frontend files from 'src/main/resources/public'
         staticFiles.location("/public"); 
         
-        // Define the API endpoint for the map
+        // Define the API endpoint for the map.
+        // Viewport mode, /api/landmarks?bbox=minLon,minLat,maxLon,maxLat&zoom=z[&cursor=..][&limit=..],
+        // streams one page straight from the Mongo cursor; follow "next" for the rest.
         get("/api/landmarks", (req, res) -> {
+            if (req.queryParams("bbox") == null) {
+                res.type("application/json");
+                // This method queries the DB for all reliable landmarks
+                return gson.toJson(DatabaseManager.getReliableLandmarksForMap());
+            }
+            double[] bbox = parseBbox(req.queryParams("bbox"));
+            if (bbox == null) {
+                halt(400, "bbox must be minLon,minLat,maxLon,maxLat");
+            }
+            int zoom = parseInt(req.queryParams("zoom"), 2, 0, 22);
+            int limit = parseInt(req.queryParams("limit"), DatabaseManager.DEFAULT_PAGE_SIZE,
+                    1, DatabaseManager.MAX_PAGE_SIZE);
+            String cursor = req.queryParams("cursor");
+            if (cursor != null) {
+                try {
+                    DatabaseManager.parseViewCursor(cursor);
+                } catch (IllegalArgumentException e) {
+                    halt(400, e.getMessage());
+                }
+            }
+
             res.type("application/json");
-            // This method queries the DB for reliable landmarks
-            return DatabaseManager.getReliableLandmarksForMap();
-        }, gson::toJson); // Automatically convert List to JSON
+            Writer out = new BufferedWriter(new OutputStreamWriter(res.raw().getOutputStream(), StandardCharsets.UTF_8));
+            DatabaseManager.streamReliableLandmarksInView(bbox[1], bbox[0], bbox[3], bbox[2],
+                    zoom, cursor, limit, out);
+            out.flush();
+            return "";
+        });
+
+        // Top 10 lists, served from aggregations cached in memory and refreshed periodically
+        LandmarkStats landmarkStats = new LandmarkStats();
+        landmarkStats.start();
 
         // API endpoint for Top 10 Countries
         get("/api/stats/top-countries", (req, res) -> {
             res.type("application/json");
-            return DatabaseManager.getTopCountries();
-        }, gson::toJson);
+            return landmarkStats.topCountriesJson();
+        });
 
         // API endpoint for Top 10 AS
         get("/api/stats/top-as", (req, res) -> {
             res.type("application/json");
-            return DatabaseManager.getTopAutonomousSystems();
-        }, gson::toJson);
+            return landmarkStats.topAutonomousSystemsJson();
+        });
+
+        // Pre-aggregated map clusters per zoom level and 256px tile (slippy-map numbering).
+        // Add ?reliable=true to count only reliable landmarks.
+        ClusterTileIndex tileIndex = new ClusterTileIndex();
+        tileIndex.loadFrom(DatabaseManager.getLandmarksCollection());
+        get("/api/tiles/:z/:x/:y", (req, res) -> {
+            int z = parseInt(req.params(":z"), -1, -1, 30);
+            int x = parseInt(req.params(":x"), -1, -1, Integer.MAX_VALUE);
+            int y = parseInt(req.params(":y"), -1, -1, Integer.MAX_VALUE);
+            String tile = tileIndex.tileJson(z, x, y, "true".equals(req.queryParams("reliable")));
+            if (tile == null) {
+                halt(404, "No such tile");
+            }
+            res.type("application/json");
+            res.header("Cache-Control", "max-age=10");
+            return tile;
+        });
+
+        // Runtime metrics in the Prometheus text format
+        get("/api/metrics", (req, res) -> {
+            res.type("text/plain; version=0.0.4; charset=utf-8");
+            return Metrics.scrape();
+        });
 
         System.out.println("-------------------------------------------------");
         System.out.println("Web server started on http://localhost:8080");
@@ -51,6 +108,7 @@ public class Main {
 
         // 4. Run the one-time import
         DataImporter importer = new DataImporter(updateService);
+        importer.addLandmarkListener(tileIndex);
         
         System.out.println("\n--- Import will start now... ---");
 
@@ -60,6 +118,33 @@ public class Main {
         
         // 5. (Optional) Run the Evaluation
         // LandmarkEvaluator evaluator = new LandmarkEvaluator();
+        // evaluator.addLandmarkListener(tileIndex);
         // evaluator.evaluateAllLandmarks();
     } 
+
+    // --- Query parameter helpers ---
+
+    /** minLon,minLat,maxLon,maxLat, or null if malformed. */
+    private static double[] parseBbox(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 4) return null;
+        double[] bbox = new double[4];
+        try {
+            for (int i = 0; i < 4; i++) bbox[i] = Double.parseDouble(parts[i].trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        boolean valid = Math.abs(bbox[1]) <= 90 && Math.abs(bbox[3]) <= 90 && bbox[1] <= bbox[3]
+                && Math.abs(bbox[0]) <= 180 && Math.abs(bbox[2]) <= 180;
+        return valid ? bbox : null;
+    }
+
+    private static int parseInt(String value, int defaultValue, int min, int max) {
+        if (value == null) return defaultValue;
+        try {
+            return Math.max(min, Math.min(max, Integer.parseInt(value.trim())));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+package com.yourproject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide metrics registry, rendered in the Prometheus text format by
+ * GET /api/metrics.
+ *
+ * Counters are LongAdders and latencies go into {@link LatencyHistogram}s, so
+ * recording is a few uncontended adds on the hot path. Components keep the
+ * counters they update in static final fields; values they already track
+ * themselves are registered as gauges (or counter functions) and read at
+ * scrape time. Asking for the same name and labels twice returns the same
+ * metric, except for gauges, where the latest supplier wins.
+ *
+ * Histograms are exposed as Prometheus summaries (p50/p90/p99/max in seconds).
+ */
+public class Metrics {
+
+    // Quantile 1 is the maximum.
+    private static final double[] QUANTILES = {50, 90, 99, 100};
+
+    /** A monotonically increasing count. */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void inc() { value.increment(); }
+        public void add(long n) { value.add(n); }
+        public long get() { return value.sum(); }
+    }
+
+    private enum Type { COUNTER, GAUGE, SUMMARY }
+
+    private static final class Family {
+        final String help;
+        final Type type;
+        // Rendered label set ("" or {k="v",...}) -> Counter, LatencyHistogram or DoubleSupplier.
+        final Map<String, Object> series = new ConcurrentSkipListMap<>();
+
+        Family(String help, Type type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private static final Map<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    // --- Registration ---
+
+    /**
+     * @param labels alternating label names and values, e.g. {@code "stage", "1"}.
+     */
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, Type.COUNTER).series
+                .computeIfAbsent(renderLabels(labels), k -> new Counter());
+    }
+
+    /**
+     * A counter whose value a component already tracks; read at scrape time.
+     */
+    public static void counter(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, Type.COUNTER).series.put(renderLabels(labels), value);
+    }
+
+    public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, Type.GAUGE).series.put(renderLabels(labels), value);
+    }
+
+    /**
+     * A latency histogram; record durations in nanoseconds.
+     */
+    public static LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, Type.SUMMARY).series
+                .computeIfAbsent(renderLabels(labels), k -> new LatencyHistogram());
+    }
+
+    private static Family family(String name, String help, Type type) {
+        Family family = FAMILIES.computeIfAbsent(name, k -> new Family(help, type));
+        if (family.type != type) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    // --- Exposition ---
+
+    /**
+     * Renders every metric in the Prometheus text exposition format (0.0.4).
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        FAMILIES.forEach((name, family) -> {
+            out.append("# HELP ").append(name).append(' ').append(escapeHelp(family.help)).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type.name().toLowerCase()).append('\n');
+            family.series.forEach((labels, metric) -> {
+                if (metric instanceof Counter) {
+                    sample(out, name, labels, ((Counter) metric).get());
+                } else if (metric instanceof LatencyHistogram) {
+                    writeSummary(out, name, labels, (LatencyHistogram) metric);
+                } else {
+                    double value;
+                    try {
+                        value = ((DoubleSupplier) metric).getAsDouble();
+                    } catch (RuntimeException e) {
+                        value = Double.NaN; // a broken gauge must not break the scrape
+                    }
+                    sample(out, name, labels, value);
+                }
+            });
+        });
+        return out.toString();
+    }
+
+    private static void writeSummary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] values = histogram.percentiles(QUANTILES);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            sample(out, name, withLabel(labels, "quantile", Double.toString(QUANTILES[i] / 100)), values[i] / 1e9);
+        }
+        sample(out, name + "_sum", labels, histogram.sum() / 1e9);
+        sample(out, name + "_count", labels, histogram.count());
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            out.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+
+    // --- Labels ---
+
+    private static String renderLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels must be name/value pairs");
+        }
+        String rendered = "";
+        for (int i = 0; i < labels.length; i += 2) {
+            rendered = withLabel(rendered, labels[i], labels[i + 1]);
+        }
+        return rendered;
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        String pair = name + "=\"" + escapeLabelValue(value) + "\"";
+        return labels.isEmpty() ? "{" + pair + "}" : labels.substring(0, labels.length() - 1) + "," + pair + "}";
+    }
+
+    private static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+}
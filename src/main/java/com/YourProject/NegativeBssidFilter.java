@@ -0,0 +1,180 @@
+package com.yourproject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Negative cache for BSSIDs that WiGLE has no location for.
+ *
+ * Known-empty BSSIDs are kept in a Bloom filter, so millions of misses fit in
+ * a few MB and can be saved and reloaded between runs. The TTL is applied by
+ * generations: new misses go into the current filter, and every TTL/2 the
+ * current filter becomes the previous one and the old previous one is
+ * dropped. An entry is therefore remembered for between TTL/2 and TTL. A
+ * false positive skips a BSSID that might have had a location, at the
+ * configured rate (0.1% by default).
+ */
+public class NegativeBssidFilter {
+
+    private static final int FILE_MAGIC = 0x4E424633; // "NBF3"
+
+    private final long numBits;
+    private final int numHashes;
+    private final long generationMillis;
+
+    private volatile AtomicLongArray current;
+    private volatile AtomicLongArray previous;
+    private volatile long generationStart;
+
+    private final LongAdder probesSaved = new LongAdder();
+    private final LongAdder added = new LongAdder();
+
+    /**
+     * @param expectedEntries misses expected per generation
+     * @param falsePositiveRate target false-positive probability, e.g. 0.001
+     */
+    public NegativeBssidFilter(long expectedEntries, double falsePositiveRate, long ttl, TimeUnit unit) {
+        double bits = -expectedEntries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.numBits = Math.max(64, ((long) Math.ceil(bits) + 63) & ~63L);
+        this.numHashes = Math.max(1, (int) Math.round(numBits / (double) expectedEntries * Math.log(2)));
+        this.generationMillis = Math.max(1, unit.toMillis(ttl) / 2);
+        this.current = newBits();
+        this.previous = newBits();
+        this.generationStart = System.currentTimeMillis();
+    }
+
+    public boolean mightContain(long bssid) {
+        rotateIfDue();
+        long hash = LongLongHashMap.mix(bssid);
+        return contains(current, hash) || contains(previous, hash);
+    }
+
+    public void add(long bssid) {
+        rotateIfDue();
+        long hash = LongLongHashMap.mix(bssid);
+        AtomicLongArray bits = current;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, numBits);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long old = bits.get(word);
+            while ((old & mask) == 0 && !bits.compareAndSet(word, old, old | mask)) {
+                old = bits.get(word);
+            }
+        }
+        added.increment();
+    }
+
+    /** Counts a lookup that was skipped because of this filter. */
+    public void recordProbeSaved() {
+        probesSaved.increment();
+    }
+
+    public long probesSaved() { return probesSaved.sum(); }
+    public long addedCount() { return added.sum(); }
+
+    public long memoryBytes() {
+        return 2 * numBits / 8;
+    }
+
+    // --- Persistence ---
+
+    /**
+     * Writes both generations to {@code file} (via a temp file and atomic move).
+     */
+    public synchronized void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeLong(numBits);
+            out.writeInt(numHashes);
+            out.writeLong(generationStart);
+            writeBits(out, current);
+            writeBits(out, previous);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a file written by {@link #save}. Returns false (keeping the empty
+     * filter) if it does not exist or was built with different parameters.
+     */
+    public synchronized boolean load(Path file) throws IOException {
+        if (!Files.exists(file)) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readLong() != numBits || in.readInt() != numHashes) {
+                return false;
+            }
+            long savedStart = in.readLong();
+            AtomicLongArray savedCurrent = readBits(in);
+            AtomicLongArray savedPrevious = readBits(in);
+
+            long age = System.currentTimeMillis() - savedStart;
+            if (age >= 2 * generationMillis) {
+                return false; // everything in it has expired
+            }
+            if (age >= generationMillis) {
+                previous = savedCurrent;
+                current = newBits();
+                generationStart = savedStart + generationMillis;
+            } else {
+                current = savedCurrent;
+                previous = savedPrevious;
+                generationStart = savedStart;
+            }
+            return true;
+        }
+    }
+
+    // --- Internals ---
+
+    private boolean contains(AtomicLongArray bits, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, numBits);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    private void rotateIfDue() {
+        if (System.currentTimeMillis() - generationStart < generationMillis) return;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - generationStart < generationMillis) return;
+            previous = now - generationStart < 2 * generationMillis ? current : newBits();
+            current = newBits();
+            generationStart = now;
+        }
+    }
+
+    private AtomicLongArray newBits() {
+        return new AtomicLongArray((int) (numBits >>> 6));
+    }
+
+    private static void writeBits(DataOutputStream out, AtomicLongArray bits) throws IOException {
+        for (int i = 0; i < bits.length(); i++) {
+            out.writeLong(bits.get(i));
+        }
+    }
+
+    private AtomicLongArray readBits(DataInputStream in) throws IOException {
+        AtomicLongArray bits = newBits();
+        for (int i = 0; i < bits.length(); i++) {
+            bits.set(i, in.readLong());
+        }
+        return bits;
+    }
+}
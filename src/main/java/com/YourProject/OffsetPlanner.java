@@ -0,0 +1,294 @@
+package com.yourproject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Learns, per router vendor (OUI), which BSSID offsets win and plans the
+ * Staged Offset Probing order from that.
+ *
+ * For every OUI we keep one int counter per offset in [-8, +8], counting how
+ * often that offset produced the selected LocationHit or a hit in its
+ * cluster (stage 1 needs the whole cluster, not just the winner), plus the
+ * number of selections. A MAC's plan orders the offsets by their counts and
+ * sizes stage 1 to cover most past cluster members. OUIs with too few samples
+ * use the histogram of all OUIs, and with too little data overall the static
+ * paper order {-1, 5, 0} / rest is used. Ties fall back to the static order.
+ */
+public class OffsetPlanner {
+
+    /** The static SOP order: the stage-1 offsets first, then the rest. */
+    private static final int[] STATIC_ORDER = {-1, 5, 0, 3, -2, -8, 1, 6, 2, -4, -3, -5, -6, -7, 4, 7, 8};
+    private static final int STATIC_STAGE1_SIZE = 3;
+
+    // A cluster needs three hits, so stage 1 never probes fewer than that.
+    private static final int MIN_STAGE1_SIZE = 3;
+    private static final int MAX_STAGE1_SIZE = 6;
+    private static final double STAGE1_COVERAGE = 0.8;
+    private static final int MIN_SAMPLES = 20;
+
+    // Same parameters DataImporter selects with.
+    private static final double CLUSTER_EPSILON_KM = 1.0;
+    private static final int CLUSTER_MIN_POINTS = 2;
+
+    private static final int FILE_MAGIC = 0x4F465031; // "OFP1"
+    // One counter per offset, then the number of selections, then how often
+    // {-1, 5, 0} were all probed and how often they alone would have escalated.
+    private static final int SELECTIONS = MacUtils.OFFSET_COUNT;
+    private static final int STATIC_RUNS = SELECTIONS + 1;
+    private static final int STATIC_ESCALATIONS = SELECTIONS + 2;
+    private static final int SLOTS = SELECTIONS + 3;
+
+    private static final Plan STATIC_PLAN = new Plan(STATIC_ORDER, STATIC_STAGE1_SIZE);
+
+    /** Probe order for one MAC: offsets[0, stage1Size) go first, the rest only if needed. */
+    public static final class Plan {
+        public final int[] offsets;
+        public final int stage1Size;
+
+        Plan(int[] offsets, int stage1Size) {
+            this.offsets = offsets;
+            this.stage1Size = stage1Size;
+        }
+    }
+
+    // OUI -> row in 'counts' (SLOTS ints per row); guarded by 'this'.
+    private final LongLongHashMap rows = new LongLongHashMap();
+    private int[] counts = new int[64 * SLOTS];
+    private final int[] globalCounts = new int[SLOTS];
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder probesSent = new LongAdder();
+    private final DoubleAdder staticProbesEstimate = new DoubleAdder();
+
+    /**
+     * Plans the probe order for a WAN MAC.
+     */
+    public Plan plan(long wanMac) {
+        int[] histogram = new int[SLOTS];
+        synchronized (this) {
+            long row = rows.get(oui(wanMac));
+            if (row != LongLongHashMap.NO_VALUE && counts[(int) row * SLOTS + SELECTIONS] >= MIN_SAMPLES) {
+                System.arraycopy(counts, (int) row * SLOTS, histogram, 0, SLOTS);
+            } else if (globalCounts[SELECTIONS] >= MIN_SAMPLES) {
+                System.arraycopy(globalCounts, 0, histogram, 0, SLOTS);
+            } else {
+                return STATIC_PLAN;
+            }
+        }
+        return planFrom(histogram);
+    }
+
+    /**
+     * Records the outcome of one MAC's probing.
+     *
+     * @param plan the plan it was probed with
+     * @param probes how many of the plan's offsets were probed
+     * @param hits every hit that came back
+     * @param selected the selected hit, or null if there was none
+     */
+    public void record(long wanMac, Plan plan, int probes,
+                       List<LocationFinder.LocationHit> hits, LocationFinder.LocationHit selected) {
+        int staticOutcome = staticStage1Outcome(plan, hits);
+        double staticCost;
+        synchronized (this) {
+            int base = rowFor(oui(wanMac)) * SLOTS;
+            if (selected != null) {
+                for (LocationFinder.LocationHit hit : hits) {
+                    int slot = hit.offset - MacUtils.MIN_OFFSET;
+                    if (slot < 0 || slot >= MacUtils.OFFSET_COUNT) continue;
+                    if (hit != selected && CoordinateFilter.haversineDistance(selected.latitude, selected.longitude,
+                            hit.latitude, hit.longitude) > CLUSTER_EPSILON_KM) continue;
+                    increment(base + slot);
+                }
+                increment(base + SELECTIONS);
+            }
+            if (staticOutcome != UNKNOWN) {
+                increment(base + STATIC_RUNS);
+                if (staticOutcome == ESCALATED) increment(base + STATIC_ESCALATIONS);
+            }
+            // Known outcome: the exact static cost; otherwise the OUI's (or global) rate.
+            staticCost = staticOutcome == STAGE1_ONLY ? STATIC_STAGE1_SIZE
+                    : staticOutcome == ESCALATED ? STATIC_ORDER.length
+                    : estimatedStaticCost(base);
+        }
+
+        lookups.increment();
+        probesSent.add(probes);
+        staticProbesEstimate.add(staticCost);
+    }
+
+    public long lookupCount() { return lookups.sum(); }
+    public long probesSent() { return probesSent.sum(); }
+
+    /**
+     * Probes saved compared to the static plan. Where {-1, 5, 0} were not all
+     * in stage 1, the static cost is estimated from how often they alone led
+     * to stage 2 for that OUI (or all OUIs) on the lookups where they were.
+     */
+    public long estimatedProbesSaved() {
+        return Math.round(staticProbesEstimate.sum()) - probesSent.sum();
+    }
+
+    public synchronized int ouiCount() {
+        return rows.size();
+    }
+
+    @Override
+    public String toString() {
+        long n = lookups.sum();
+        return String.format("%,d OUIs learned, %,d lookups, %.2f probes/lookup, ~%,d probes saved vs static plan",
+                ouiCount(), n, n == 0 ? 0.0 : (double) probesSent.sum() / n, estimatedProbesSaved());
+    }
+
+    // --- Persistence ---
+
+    /**
+     * Writes the per-OUI histograms to {@code file} (via a temp file and atomic move).
+     */
+    public void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            synchronized (this) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(SLOTS);
+                out.writeInt(rows.size());
+                rows.forEach((oui, row) -> {
+                    try {
+                        out.writeInt((int) oui);
+                        for (int i = 0; i < SLOTS; i++) {
+                            out.writeInt(counts[(int) row * SLOTS + i]);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Adds the histograms from a file written by {@link #save}.
+     * Returns false if it does not exist or has a different layout.
+     */
+    public boolean load(Path file) throws IOException {
+        if (!Files.exists(file)) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != SLOTS) return false;
+            int ouis = in.readInt();
+            synchronized (this) {
+                for (int n = 0; n < ouis; n++) {
+                    int base = rowFor(in.readInt() & 0xFFFFFFL) * SLOTS;
+                    for (int i = 0; i < SLOTS; i++) {
+                        int c = in.readInt();
+                        counts[base + i] = (int) Math.min(Integer.MAX_VALUE, (long) counts[base + i] + c);
+                        globalCounts[i] = (int) Math.min(Integer.MAX_VALUE, (long) globalCounts[i] + c);
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    // --- Internals ---
+
+    private static Plan planFrom(int[] histogram) {
+        // Order by count, keeping the static order among equal counts (insertion sort, 17 items).
+        int[] order = STATIC_ORDER.clone();
+        for (int i = 1; i < order.length; i++) {
+            int offset = order[i];
+            int c = histogram[offset - MacUtils.MIN_OFFSET];
+            int j = i - 1;
+            while (j >= 0 && histogram[order[j] - MacUtils.MIN_OFFSET] < c) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = offset;
+        }
+
+        long total = 0;
+        for (int i = 0; i < MacUtils.OFFSET_COUNT; i++) total += histogram[i];
+        long covered = 0;
+        int stage1 = 0;
+        while (stage1 < MAX_STAGE1_SIZE && (stage1 < MIN_STAGE1_SIZE || covered < STAGE1_COVERAGE * total)) {
+            covered += histogram[order[stage1] - MacUtils.MIN_OFFSET];
+            stage1++;
+        }
+        return new Plan(order, stage1);
+    }
+
+    private static final int UNKNOWN = 0;
+    private static final int STAGE1_ONLY = 1;
+    private static final int ESCALATED = 2;
+
+    // Whether {-1, 5, 0} alone would have selected a hit. Only judged when all three were
+    // in stage 1, since looking at escalated lookups alone would skew the rate.
+    private static int staticStage1Outcome(Plan plan, List<LocationFinder.LocationHit> hits) {
+        for (int i = 0; i < STATIC_STAGE1_SIZE; i++) {
+            if (!contains(plan.offsets, plan.stage1Size, STATIC_ORDER[i])) return UNKNOWN;
+        }
+        List<LocationFinder.LocationHit> stage1Hits = new ArrayList<>();
+        for (LocationFinder.LocationHit hit : hits) {
+            if (contains(STATIC_ORDER, STATIC_STAGE1_SIZE, hit.offset)) stage1Hits.add(hit);
+        }
+        return CoordinateFilter.clusterAndSelect(stage1Hits, CLUSTER_EPSILON_KM, CLUSTER_MIN_POINTS) != null
+                ? STAGE1_ONLY : ESCALATED;
+    }
+
+    // Caller holds 'this'.
+    private double estimatedStaticCost(int base) {
+        int[] source = counts;
+        if (counts[base + STATIC_RUNS] == 0) {
+            source = globalCounts;
+            base = 0;
+        }
+        int runs = source[base + STATIC_RUNS];
+        double escalationRate = runs == 0 ? 0 : (double) source[base + STATIC_ESCALATIONS] / runs;
+        return STATIC_STAGE1_SIZE + escalationRate * (STATIC_ORDER.length - STATIC_STAGE1_SIZE);
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) return true;
+        }
+        return false;
+    }
+
+    // Caller holds 'this'. Bumps a per-OUI counter and its global total.
+    private void increment(int index) {
+        if (counts[index] < Integer.MAX_VALUE) counts[index]++;
+        int slot = index % SLOTS;
+        if (globalCounts[slot] < Integer.MAX_VALUE) globalCounts[slot]++;
+    }
+
+    // Caller holds 'this'.
+    private int rowFor(long oui) {
+        long row = rows.get(oui);
+        if (row != LongLongHashMap.NO_VALUE) return (int) row;
+        int next = rows.size();
+        if ((next + 1) * SLOTS > counts.length) {
+            counts = Arrays.copyOf(counts, counts.length * 2);
+        }
+        rows.put(oui, next);
+        return next;
+    }
+
+    private static long oui(long mac) {
+        return (mac >>> 24) & 0xFFFFFFL;
+    }
+}
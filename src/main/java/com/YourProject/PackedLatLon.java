@@ -0,0 +1,32 @@
+package com.yourproject;
+
+/**
+ * Packs a coordinate into one long: latitude and longitude as signed
+ * fixed-point integers in units of 1e-7 degrees (about 1 cm), high and low
+ * 32 bits respectively. Lets caches and indexes hold coordinates in
+ * primitive arrays.
+ */
+public final class PackedLatLon {
+
+    /** Marker for "no coordinate"; its latitude (-214.7 deg) can never be valid. */
+    public static final long NONE = Long.MIN_VALUE;
+
+    private static final double SCALE = 1e7;
+
+    private PackedLatLon() {
+    }
+
+    public static long pack(double latitude, double longitude) {
+        int lat = (int) Math.round(latitude * SCALE);
+        int lon = (int) Math.round(longitude * SCALE);
+        return ((long) lat << 32) | (lon & 0xFFFFFFFFL);
+    }
+
+    public static double latitude(long packed) {
+        return (int) (packed >> 32) / SCALE;
+    }
+
+    public static double longitude(long packed) {
+        return (int) packed / SCALE;
+    }
+}
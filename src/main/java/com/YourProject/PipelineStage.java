@@ -0,0 +1,185 @@
+package com.yourproject;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One stage of the import pipeline: a bounded input queue drained by a fixed
+ * number of workers that each run the stage's handler on one item at a time.
+ *
+ * {@link #put} blocks while the queue is full, so a slow stage stalls the
+ * stages feeding it instead of letting work pile up in memory. I/O-bound
+ * stages run their workers on virtual threads where available (see
+ * {@link VirtualThreads}). Queue depth, items handled, busy workers and the
+ * time producers spent blocked are exported per stage in /api/metrics.
+ *
+ * Lifecycle: {@link #start}, {@link #put} items, {@link #finishInput} once the
+ * upstream is done, then {@link #awaitDone} until the queue is drained.
+ *
+ * An item whose handler throws, or that {@link #put} drops when interrupted,
+ * goes to the stage's {@link FailureHandler}, so the caller can account for it.
+ */
+public class PipelineStage<T> {
+
+    /** Does the stage's work on one item, usually ending in {@code put} on the next stage. */
+    public interface Handler<T> {
+        void handle(T item) throws Exception;
+    }
+
+    /** Told about an item that failed or was dropped; it was not passed on. */
+    public interface FailureHandler<T> {
+        void failed(T item, Exception error);
+    }
+
+    private static final long POLL_MILLIS = 50;
+
+    private final String name;
+    private final int parallelism;
+    private final boolean io;
+    private final Handler<T> handler;
+    private final FailureHandler<T> onFailure;
+    private final BlockingQueue<T> queue;
+    private final CountDownLatch done;
+    private final AtomicInteger busy = new AtomicInteger();
+    private volatile boolean inputFinished = false;
+    private ExecutorService workers;
+
+    private final Metrics.Counter handled;
+    private final Metrics.Counter errors;
+    private final LongAdder blockedNanos = new LongAdder();
+
+    /**
+     * @param capacity items that can wait in the input queue.
+     * @param parallelism workers handling items concurrently.
+     * @param io whether the handler mostly waits (network, MongoDB), so virtual threads pay off.
+     */
+    public PipelineStage(String name, int capacity, int parallelism, boolean io, Handler<T> handler) {
+        this(name, capacity, parallelism, io, handler, (item, error) -> { });
+    }
+
+    public PipelineStage(String name, int capacity, int parallelism, boolean io, Handler<T> handler,
+                         FailureHandler<T> onFailure) {
+        if (capacity < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("capacity and parallelism must be positive");
+        }
+        this.name = name;
+        this.parallelism = parallelism;
+        this.io = io;
+        this.handler = handler;
+        this.onFailure = onFailure;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.done = new CountDownLatch(parallelism);
+
+        this.handled = Metrics.counter("lanmarker_pipeline_items_total", "Items handled per import stage",
+                "stage", name);
+        this.errors = Metrics.counter("lanmarker_pipeline_errors_total", "Items that failed per import stage",
+                "stage", name);
+        Metrics.gauge("lanmarker_pipeline_queue_depth", "Items waiting per import stage", queue::size,
+                "stage", name);
+        Metrics.gauge("lanmarker_pipeline_busy_workers", "Workers handling an item per import stage", busy::get,
+                "stage", name);
+        Metrics.counter("lanmarker_pipeline_blocked_seconds_total",
+                "Time producers spent waiting for room in a stage's queue",
+                () -> blockedNanos.sum() / 1e9, "stage", name);
+    }
+
+    public void start() {
+        workers = io ? VirtualThreads.newExecutor("import-" + name, parallelism)
+                : Executors.newFixedThreadPool(parallelism, r -> {
+                    Thread t = new Thread(r, "import-" + name);
+                    t.setDaemon(true);
+                    return t;
+                });
+        for (int i = 0; i < parallelism; i++) {
+            workers.execute(this::runWorker);
+        }
+    }
+
+    /**
+     * Queues an item, blocking while the queue is full. If interrupted while
+     * blocked, the item is dropped and handed to the FailureHandler.
+     */
+    public void put(T item) {
+        if (queue.offer(item)) return;
+        long start = System.nanoTime();
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            blockedNanos.add(System.nanoTime() - start);
+            failed(item, e);
+            return;
+        }
+        blockedNanos.add(System.nanoTime() - start);
+    }
+
+    /** No more items will be put; workers exit once the queue is empty. */
+    public void finishInput() {
+        inputFinished = true;
+    }
+
+    /** Blocks until every queued item has been handled (after {@link #finishInput}). */
+    public void awaitDone() {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+    }
+
+    public long handledCount() {
+        return handled.get();
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %,d handled, %,d errors, %d queued, blocked producers %.1fs",
+                name, handled.get(), errors.get(), queue.size(), blockedNanos.sum() / 1e9);
+    }
+
+    private void runWorker() {
+        try {
+            while (true) {
+                T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    if (inputFinished && queue.isEmpty()) return;
+                    continue;
+                }
+                busy.incrementAndGet();
+                try {
+                    handler.handle(item);
+                    handled.inc();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    failed(item, e);
+                } finally {
+                    busy.decrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            done.countDown();
+        }
+    }
+
+    private void failed(T item, Exception error) {
+        errors.inc();
+        try {
+            onFailure.failed(item, error);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
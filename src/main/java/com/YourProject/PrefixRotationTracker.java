@@ -0,0 +1,103 @@
+package com.yourproject;
+
+/**
+ * In-memory prefix state for every tracked landmark, keyed by the 64-bit IID.
+ *
+ * Each IID maps to the upper 64 bits of the address it was last seen with.
+ * Rotations are detected locally and remembered in a pending map that the
+ * UpdateService drains and writes out in batches, so the hot path never waits
+ * on MongoDB. The maps are striped to keep lock contention low when many
+ * import threads report addresses at once.
+ */
+public class PrefixRotationTracker {
+
+    public enum Result {
+        UNTRACKED, // IID is not a known landmark
+        UNCHANGED, // seen again under the same prefix
+        ROTATED    // known IID under a new prefix
+    }
+
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    private final LongLongHashMap[] current = new LongLongHashMap[STRIPES];
+    private final LongLongHashMap[] pending = new LongLongHashMap[STRIPES];
+
+    public PrefixRotationTracker() {
+        for (int i = 0; i < STRIPES; i++) {
+            current[i] = new LongLongHashMap();
+            pending[i] = new LongLongHashMap();
+        }
+    }
+
+    /**
+     * Registers a landmark's IID and prefix without counting it as a rotation.
+     */
+    public void track(long iid, long prefix) {
+        int s = stripe(iid);
+        synchronized (current[s]) {
+            current[s].put(iid, prefix);
+        }
+    }
+
+    public Result observe(long iid, long prefix) {
+        int s = stripe(iid);
+        LongLongHashMap map = current[s];
+        synchronized (map) {
+            long previous = map.get(iid);
+            if (previous == LongLongHashMap.NO_VALUE) return Result.UNTRACKED;
+            if (previous == prefix) return Result.UNCHANGED;
+            map.put(iid, prefix);
+            pending[s].put(iid, prefix); // only the latest prefix per IID is written
+            return Result.ROTATED;
+        }
+    }
+
+    /**
+     * Hands every pending rotation (IID, new prefix) to the visitor and clears them.
+     *
+     * @return the number of rotations drained.
+     */
+    public int drainPending(LongLongHashMap.Visitor visitor) {
+        int drained = 0;
+        for (int s = 0; s < STRIPES; s++) {
+            LongLongHashMap batch;
+            synchronized (current[s]) {
+                if (pending[s].isEmpty()) continue;
+                batch = pending[s];
+                pending[s] = new LongLongHashMap();
+            }
+            batch.forEach(visitor);
+            drained += batch.size();
+        }
+        return drained;
+    }
+
+    /**
+     * Puts back a drained rotation whose write failed, unless the IID has
+     * rotated again since (then the newer prefix is pending instead).
+     */
+    public void requeue(long iid, long prefix) {
+        int s = stripe(iid);
+        synchronized (current[s]) {
+            if (current[s].get(iid) == prefix && !pending[s].containsKey(iid)) {
+                pending[s].put(iid, prefix);
+            }
+        }
+    }
+
+    public long size() {
+        long total = 0;
+        for (LongLongHashMap map : current) {
+            synchronized (map) {
+                total += map.size();
+            }
+        }
+        return total;
+    }
+
+    private static int stripe(long iid) {
+        // High bits, since the maps themselves index by the low bits of the same hash.
+        return (int) (LongLongHashMap.mix(iid) >>> (64 - STRIPE_BITS));
+    }
+}
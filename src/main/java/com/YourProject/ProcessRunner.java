@@ -0,0 +1,19 @@
+package com.yourproject;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Starts external commands, so the traceroute engine can run against a
+ * scripted fake (see {@link ScriptedProcessRunner}) instead of the OS.
+ *
+ * The returned process must have stderr merged into stdout, and destroying it
+ * must end its output stream.
+ */
+public interface ProcessRunner {
+
+    /** Runs commands as real OS processes. */
+    ProcessRunner SYSTEM = command -> new ProcessBuilder(command).redirectErrorStream(true).start();
+
+    Process start(List<String> command) throws IOException;
+}
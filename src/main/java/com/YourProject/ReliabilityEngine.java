@@ -0,0 +1,616 @@
+package com.yourproject;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Incremental landmark reliability evaluation ("Evaluation of IPv6
+ * Street-Level Landmarks"), one city at a time.
+ *
+ * A "city" is a {@link #CELL_DEGREES} latitude/longitude grid cell, about a
+ * city's extent: the landmark documents have coordinates but no city name
+ * (nothing geocodes them), and the peers that matter are the nearby ones
+ * anyway. Two landmarks on either side of a cell edge aren't compared.
+ *
+ * Landmarks of a city behind the same last-hop router are checked pairwise
+ * with the triangle inequality: the distance between two landmarks can't
+ * exceed the distance light in fibre covers in their two router-to-landmark
+ * delays (RTT to the landmark minus RTT to the router, {@link #KM_PER_RTT_MS}
+ * per millisecond). A landmark is reliable when it has at least one peer and
+ * agrees with a strict majority of them.
+ *
+ * Per city, landmarks live in parallel primitive arrays (coordinates, router
+ * id, delay, fingerprints, agreement counters) and each router keeps an int
+ * array of its members, so a changed landmark costs one pass over its old and
+ * new router's members. A pass only traces landmarks created or updated since
+ * the previous pass whose coordinates or prefix actually changed, plus a
+ * bounded number of the least recently traced ones to notice route changes.
+ * A re-traced landmark whose path, last-hop router and delay (within
+ * {@link #DELAY_TOLERANCE_MS}) are unchanged isn't compared again. Only
+ * verdicts that flip are written, as batched is_reliable updates; a verdict
+ * is only recorded (and announced) once its update is written, and a failed
+ * one is retried on the next pass. The
+ * state survives restarts in a file next to the other persisted state.
+ */
+public class ReliabilityEngine {
+
+    /** Light in fibre (~2/3 c) covers ~100 km per millisecond of round-trip time. */
+    public static final double KM_PER_RTT_MS = 100;
+    /** Tolerance for geolocation noise between two landmarks. */
+    public static final double SLACK_KM = 2;
+    /** Landmarks traced longer ago than this are traced again... */
+    public static final long RETRACE_AFTER_MILLIS = TimeUnit.DAYS.toMillis(30);
+    /** ...at most this many per pass. */
+    public static final int MAX_RETRACES_PER_PASS = 10_000;
+    /** A re-trace whose router-to-landmark delay moved less than this (and path not at all) changes nothing. */
+    public static final double DELAY_TOLERANCE_MS = 0.1;
+    /** Size of the grid cells landmarks are grouped by (~28 km north-south). */
+    public static final double CELL_DEGREES = 0.25;
+
+    public static final Path DEFAULT_STATE_FILE = LocationFinder.STATE_DIR.resolve("reliability-state.bin");
+
+    private static final int FILE_MAGIC = 0x524C5432; // "RLT2", grouped by grid cell
+    private static final int WRITE_BATCH_SIZE = 1000;
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    // Saves that raced the previous pass's query are picked up again.
+    private static final long CHANGE_OVERLAP_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Metrics.Counter TRACED = Metrics.counter(
+            "lanmarker_reliability_traced_total", "Landmarks traced by the reliability evaluation");
+    private static final Metrics.Counter UNCHANGED_PATHS = Metrics.counter(
+            "lanmarker_reliability_unchanged_paths_total", "Re-traced landmarks whose path hadn't changed");
+    private static final Metrics.Counter REEVALUATED = Metrics.counter(
+            "lanmarker_reliability_reevaluated_total", "Landmark verdicts recomputed");
+    private static final Metrics.Counter NOW_RELIABLE = Metrics.counter(
+            "lanmarker_reliability_flips_total", "is_reliable changes written", "to", "true");
+    private static final Metrics.Counter NOW_UNRELIABLE = Metrics.counter(
+            "lanmarker_reliability_flips_total", "is_reliable changes written", "to", "false");
+    private static final LatencyHistogram PASS_TIME = Metrics.histogram(
+            "lanmarker_reliability_pass_seconds", "Time per reliability evaluation pass");
+
+    /** A landmark as read from MongoDB; {@code city} is its grid cell (see {@link #cellOf}). */
+    public static final class Landmark {
+        public final String id;
+        public final String ip;
+        public final String city;
+        public final double latitude;
+        public final double longitude;
+        public final boolean reliable;
+
+        public Landmark(String id, String ip, String city, double latitude, double longitude, boolean reliable) {
+            this.id = id;
+            this.ip = ip;
+            this.city = city;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.reliable = reliable;
+        }
+    }
+
+    private final TracerouteEngine tracer;
+    private final Path stateFile;
+    private final Map<String, City> cities = new HashMap<>();
+    private final Map<String, City> cityOfLandmark = new HashMap<>();
+    private final List<LandmarkListener> listeners = new CopyOnWriteArrayList<>();
+    private long lastPassMillis = 0;
+    private volatile int landmarkCount = 0; // for the metrics, which mustn't wait for a pass
+
+    /**
+     * @param stateFile where the per-city state is kept between passes, or null to keep it in memory only.
+     */
+    public ReliabilityEngine(TracerouteEngine tracer, Path stateFile) {
+        this.tracer = tracer;
+        this.stateFile = stateFile;
+        if (stateFile != null) {
+            try {
+                if (load(stateFile)) {
+                    System.out.printf("Loaded reliability state for %,d landmarks from %s%n",
+                            cityOfLandmark.size(), stateFile);
+                }
+            } catch (IOException e) {
+                System.out.println("Could not load reliability state, starting over: " + e.getMessage());
+                cities.clear();
+                cityOfLandmark.clear();
+                lastPassMillis = 0;
+            }
+        }
+        Metrics.gauge("lanmarker_reliability_landmarks", "Landmarks in the reliability state",
+                this::landmarkCount);
+    }
+
+    /** Told about every is_reliable change written. */
+    public void addLandmarkListener(LandmarkListener listener) {
+        listeners.add(listener);
+    }
+
+    public int landmarkCount() {
+        return landmarkCount;
+    }
+
+    /**
+     * One evaluation pass: reads the landmarks changed since the last pass
+     * (all of them the first time), re-evaluates what they affect, writes the
+     * flipped verdicts and saves the state.
+     */
+    public synchronized void evaluate() {
+        long start = System.nanoTime();
+        long passMillis = System.currentTimeMillis();
+        List<Landmark> changed = loadChanged();
+        Map<String, Boolean> flips = update(changed);
+        int written = writeFlips(flips);
+        lastPassMillis = passMillis;
+        if (stateFile != null) {
+            try {
+                save(stateFile);
+            } catch (IOException e) {
+                System.out.println("Could not save reliability state: " + e.getMessage());
+            }
+        }
+        PASS_TIME.recordSince(start);
+        System.out.printf("Reliability pass: %,d changed landmarks read, %,d verdicts flipped (%,d not written) in %d ms%n",
+                changed.size(), written, flips.size() - written,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Applies {@code changed} (and any due re-traces) to the state.
+     *
+     * @return landmark id -> new is_reliable, for the verdicts that flipped, in
+     *         no particular order. They aren't recorded in the state until
+     *         written (see {@link #evaluate}).
+     */
+    public synchronized Map<String, Boolean> update(Collection<Landmark> changed) {
+        long now = System.currentTimeMillis();
+
+        // 1. What needs a traceroute: new or moved landmarks, and stale paths.
+        Map<String, Landmark> toTrace = new HashMap<>();
+        for (Landmark landmark : changed) {
+            City city = cityOfLandmark.get(landmark.id);
+            if (city != null && city.name.equals(landmark.city)) {
+                int slot = city.slots.get(landmark.id);
+                if (city.fingerprint[slot] == fingerprint(landmark)) continue; // e.g. only last_updated moved
+            }
+            toTrace.put(landmark.ip, landmark);
+        }
+        int retraces = 0;
+        for (City city : cities.values()) {
+            for (int slot = 0; slot < city.size && retraces < MAX_RETRACES_PER_PASS; slot++) {
+                if (city.ids[slot] == null || now - city.tracedAt[slot] < RETRACE_AFTER_MILLIS) continue;
+                if (toTrace.putIfAbsent(city.ips[slot], city.landmark(slot)) == null) retraces++;
+            }
+        }
+
+        // 2. Trace them in parallel.
+        Queue<TracerouteEngine.Trace> traces = new ConcurrentLinkedQueue<>();
+        if (!toTrace.isEmpty()) {
+            System.out.printf("Tracing %,d landmarks (%,d re-traces)...%n", toTrace.size(), retraces);
+            tracer.traceAll(toTrace.keySet(), traces::add);
+            TRACED.add(toTrace.size());
+        }
+
+        // 3. Fold the results in; every landmark whose counters moved is marked touched.
+        for (TracerouteEngine.Trace trace : traces) {
+            apply(toTrace.get(trace.target), trace, now);
+        }
+
+        // 4. New verdicts for the touched landmarks.
+        Map<String, Boolean> flips = new LinkedHashMap<>();
+        for (City city : cities.values()) {
+            for (int slot = city.touched.nextSetBit(0); slot >= 0; slot = city.touched.nextSetBit(slot + 1)) {
+                if (city.ids[slot] == null) continue;
+                REEVALUATED.inc();
+                boolean reliable = city.checks[slot] > 0 && 2 * city.violations[slot] < city.checks[slot];
+                if (reliable != city.reliable.get(slot)) {
+                    flips.put(city.ids[slot], reliable);
+                }
+            }
+            city.touched.clear();
+        }
+        landmarkCount = cityOfLandmark.size();
+        return flips;
+    }
+
+    private void apply(Landmark landmark, TracerouteEngine.Trace trace, long now) {
+        City city = cityOfLandmark.get(landmark.id);
+        if (city != null && !city.name.equals(landmark.city)) {
+            city.remove(landmark.id); // moved to another city
+            city = null;
+        }
+        if (city == null) {
+            city = cities.computeIfAbsent(landmark.city, City::new);
+            cityOfLandmark.put(landmark.id, city);
+        }
+        boolean known = city.slots.containsKey(landmark.id);
+        int slot = city.slotFor(landmark);
+
+        TracerouteEngine.Hop router = trace.lastRouter();
+        TracerouteEngine.Hop target = trace.targetHop();
+        int routerId = -1;
+        float delay = 0;
+        if (router != null && target != null && !Double.isNaN(router.rttMillis) && !Double.isNaN(target.rttMillis)) {
+            routerId = city.routerId(router.address);
+            delay = (float) Math.max(0, target.rttMillis - router.rttMillis);
+        }
+        long fingerprint = fingerprint(landmark);
+        long path = pathHash(trace);
+        city.tracedAt[slot] = now;
+        if (known && city.fingerprint[slot] == fingerprint && city.pathHash[slot] == path
+                && city.router[slot] == routerId && Math.abs(city.delay[slot] - delay) <= DELAY_TOLERANCE_MS) {
+            // A routine re-trace that found the same route: its peers' counters stand.
+            UNCHANGED_PATHS.inc();
+            return;
+        }
+        city.place(slot, landmark.latitude, landmark.longitude, routerId, delay);
+        city.ips[slot] = landmark.ip;
+        city.fingerprint[slot] = fingerprint;
+        city.pathHash[slot] = path;
+    }
+
+    // --- MongoDB ---
+
+    private List<Landmark> loadChanged() {
+        Bson filter = new Document();
+        if (lastPassMillis > 0) {
+            Date since = new Date(lastPassMillis - CHANGE_OVERLAP_MILLIS);
+            filter = Filters.or(Filters.gte("created_at", since), Filters.gte("last_updated", since));
+        }
+        List<Landmark> changed = new ArrayList<>();
+        DatabaseManager.getLandmarksCollection()
+                .find(filter)
+                .projection(Projections.include("current_ip", "latitude", "longitude", "is_reliable"))
+                .forEach((Document doc) -> {
+                    Object lat = doc.get("latitude");
+                    Object lon = doc.get("longitude");
+                    if (!(lat instanceof Number) || !(lon instanceof Number)) return;
+                    double latitude = ((Number) lat).doubleValue();
+                    double longitude = ((Number) lon).doubleValue();
+                    String id = String.valueOf(doc.get("_id"));
+                    changed.add(new Landmark(id, DatabaseManager.currentIp(doc), cellOf(latitude, longitude),
+                            latitude, longitude, Boolean.TRUE.equals(doc.get("is_reliable"))));
+                });
+        return changed;
+    }
+
+    /** The grid cell a landmark is grouped in, as "row,column". */
+    static String cellOf(double latitude, double longitude) {
+        return (long) Math.floor(latitude / CELL_DEGREES) + "," + (long) Math.floor(longitude / CELL_DEGREES);
+    }
+
+    /**
+     * Writes the flipped verdicts. The written ones are recorded in the state
+     * and announced to the listeners; the others stay touched, so the next
+     * pass tries them again.
+     *
+     * @return how many were written.
+     */
+    private int writeFlips(Map<String, Boolean> flips) {
+        MongoCollection<Document> landmarks = DatabaseManager.getLandmarksCollection();
+        List<String> ids = new ArrayList<>();
+        List<WriteModel<Document>> batch = new ArrayList<>();
+        int written = 0;
+        for (Map.Entry<String, Boolean> flip : flips.entrySet()) {
+            ids.add(flip.getKey());
+            batch.add(new UpdateOneModel<>(Filters.eq("_id", flip.getKey()), Updates.set("is_reliable", flip.getValue())));
+            if (batch.size() == WRITE_BATCH_SIZE) {
+                written += writeBatch(landmarks, batch, ids, flips);
+            }
+        }
+        written += writeBatch(landmarks, batch, ids, flips);
+        return written;
+    }
+
+    private int writeBatch(MongoCollection<Document> landmarks, List<WriteModel<Document>> batch,
+                           List<String> ids, Map<String, Boolean> flips) {
+        if (batch.isEmpty()) return 0;
+        BitSet failed = new BitSet(batch.size());
+        try {
+            landmarks.bulkWrite(batch, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            // Unordered: only the updates with an error weren't applied.
+            for (BulkWriteError error : e.getWriteErrors()) {
+                failed.set(error.getIndex());
+            }
+            System.out.println("is_reliable batch: " + e.getWriteErrors().size() + " updates failed, retried next pass");
+        } catch (RuntimeException e) {
+            failed.set(0, batch.size());
+            System.out.println("is_reliable batch failed, retried next pass: " + e.getMessage());
+        }
+
+        int written = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.get(i);
+            City city = cityOfLandmark.get(id);
+            int slot = city.slots.get(id);
+            if (failed.get(i)) {
+                city.touched.set(slot);
+                continue;
+            }
+            boolean reliable = flips.get(id);
+            city.reliable.set(slot, reliable);
+            written++;
+            (reliable ? NOW_RELIABLE : NOW_UNRELIABLE).inc();
+            Document landmark = new Document("_id", id)
+                    .append("latitude", city.latitude[slot])
+                    .append("longitude", city.longitude[slot]);
+            for (LandmarkListener listener : listeners) {
+                listener.reliabilityChanged(landmark, reliable);
+            }
+        }
+        batch.clear();
+        ids.clear();
+        return written;
+    }
+
+    // --- Fingerprints and geometry ---
+
+    /** Changes when the coordinates or the /64 the landmark answers on change. */
+    static long fingerprint(Landmark landmark) {
+        byte[] address = Ipv6Bytes.parse(landmark.ip);
+        long prefix = address != null ? Ipv6Bytes.prefix(address) : landmark.ip.hashCode();
+        long h = LongLongHashMap.mix(Double.doubleToLongBits(landmark.latitude));
+        h = LongLongHashMap.mix(h ^ Double.doubleToLongBits(landmark.longitude));
+        return LongLongHashMap.mix(h ^ prefix);
+    }
+
+    private static long pathHash(TracerouteEngine.Trace trace) {
+        long h = trace.hops.size();
+        for (TracerouteEngine.Hop hop : trace.hops) {
+            h = LongLongHashMap.mix(h ^ (hop.address == null ? 0 : hop.address.hashCode()));
+        }
+        return h;
+    }
+
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    // --- Persistence ---
+
+    private void save(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeLong(lastPassMillis);
+            out.writeInt(cities.size());
+            for (City city : cities.values()) {
+                out.writeUTF(city.name);
+                out.writeInt(city.slots.size());
+                for (int slot = 0; slot < city.size; slot++) {
+                    if (city.ids[slot] == null) continue;
+                    out.writeUTF(city.ids[slot]);
+                    out.writeUTF(city.ips[slot]);
+                    out.writeDouble(city.latitude[slot]);
+                    out.writeDouble(city.longitude[slot]);
+                    out.writeUTF(city.router[slot] < 0 ? "" : city.routerNames[city.router[slot]]);
+                    out.writeFloat(city.delay[slot]);
+                    out.writeLong(city.fingerprint[slot]);
+                    out.writeLong(city.pathHash[slot]);
+                    out.writeLong(city.tracedAt[slot]);
+                    out.writeBoolean(city.reliable.get(slot));
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Rebuilds the state (and its agreement counters) from a file written by {@link #save}. */
+    private boolean load(Path file) throws IOException {
+        if (!Files.exists(file)) return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) return false;
+            lastPassMillis = in.readLong();
+            int cityCount = in.readInt();
+            for (int c = 0; c < cityCount; c++) {
+                City city = new City(in.readUTF());
+                cities.put(city.name, city);
+                int landmarks = in.readInt();
+                for (int n = 0; n < landmarks; n++) {
+                    String id = in.readUTF();
+                    String ip = in.readUTF();
+                    double lat = in.readDouble();
+                    double lon = in.readDouble();
+                    String router = in.readUTF();
+                    float delay = in.readFloat();
+                    long fingerprint = in.readLong();
+                    long pathHash = in.readLong();
+                    long tracedAt = in.readLong();
+                    boolean reliable = in.readBoolean();
+
+                    int slot = city.slotFor(new Landmark(id, ip, city.name, lat, lon, reliable));
+                    city.place(slot, lat, lon, router.isEmpty() ? -1 : city.routerId(router), delay);
+                    city.fingerprint[slot] = fingerprint;
+                    city.pathHash[slot] = pathHash;
+                    city.tracedAt[slot] = tracedAt;
+                    cityOfLandmark.put(id, city);
+                }
+                // Left touched: the first pass re-checks every verdict against its counters (no
+                // traces), which also retries flips whose write failed before the restart.
+            }
+            landmarkCount = cityOfLandmark.size();
+            return true;
+        }
+    }
+
+    /**
+     * The landmarks of one city. Slot i of every array describes one
+     * landmark; a removed landmark leaves a null id behind.
+     */
+    private static final class City {
+        final String name;
+        final Map<String, Integer> slots = new HashMap<>();
+        int size = 0;
+        String[] ids = new String[16];
+        String[] ips = new String[16];
+        double[] latitude = new double[16];
+        double[] longitude = new double[16];
+        int[] router = new int[16];        // -1: no usable trace
+        int[] memberIndex = new int[16];   // position in members[router]
+        float[] delay = new float[16];     // router -> landmark RTT, ms
+        long[] fingerprint = new long[16];
+        long[] pathHash = new long[16];
+        long[] tracedAt = new long[16];
+        int[] checks = new int[16];        // peers compared with
+        int[] violations = new int[16];    // ... and disagreed with
+        final BitSet reliable = new BitSet();
+        final BitSet touched = new BitSet();
+
+        final Map<String, Integer> routerIds = new HashMap<>();
+        String[] routerNames = new String[4];
+        int[][] members = new int[4][];
+        int[] memberCounts = new int[4];
+
+        City(String name) {
+            this.name = name;
+        }
+
+        int slotFor(Landmark landmark) {
+            Integer existing = slots.get(landmark.id);
+            if (existing != null) return existing;
+            if (size == ids.length) grow();
+            int slot = size++;
+            ids[slot] = landmark.id;
+            ips[slot] = landmark.ip;
+            router[slot] = -1;
+            reliable.set(slot, landmark.reliable);
+            slots.put(landmark.id, slot);
+            touched.set(slot);
+            return slot;
+        }
+
+        void remove(String id) {
+            Integer slot = slots.remove(id);
+            if (slot == null) return;
+            detach(slot);
+            ids[slot] = null;
+        }
+
+        int routerId(String address) {
+            Integer id = routerIds.get(address);
+            if (id != null) return id;
+            int next = routerIds.size();
+            if (next == routerNames.length) {
+                routerNames = Arrays.copyOf(routerNames, next * 2);
+                members = Arrays.copyOf(members, next * 2);
+                memberCounts = Arrays.copyOf(memberCounts, next * 2);
+            }
+            routerNames[next] = address;
+            members[next] = new int[4];
+            routerIds.put(address, next);
+            return next;
+        }
+
+        /** Moves a landmark to new coordinates / router, updating its and its peers' counters. */
+        void place(int slot, double lat, double lon, int routerId, float routerDelay) {
+            detach(slot);
+            latitude[slot] = lat;
+            longitude[slot] = lon;
+            delay[slot] = routerDelay;
+            router[slot] = routerId;
+            touched.set(slot);
+            if (routerId < 0) return;
+
+            int[] peers = members[routerId];
+            int count = memberCounts[routerId];
+            for (int i = 0; i < count; i++) {
+                int peer = peers[i];
+                boolean agrees = consistent(slot, peer);
+                checks[slot]++;
+                checks[peer]++;
+                if (!agrees) {
+                    violations[slot]++;
+                    violations[peer]++;
+                }
+                touched.set(peer);
+            }
+            if (count == peers.length) {
+                members[routerId] = peers = Arrays.copyOf(peers, count * 2);
+            }
+            peers[count] = slot;
+            memberIndex[slot] = count;
+            memberCounts[routerId] = count + 1;
+        }
+
+        private void detach(int slot) {
+            int routerId = router[slot];
+            if (routerId >= 0) {
+                int[] peers = members[routerId];
+                int count = memberCounts[routerId];
+                // Swap-remove the landmark from its router's members.
+                int last = peers[count - 1];
+                peers[memberIndex[slot]] = last;
+                memberIndex[last] = memberIndex[slot];
+                memberCounts[routerId] = --count;
+                for (int i = 0; i < count; i++) {
+                    int peer = peers[i];
+                    checks[peer]--;
+                    if (!consistent(slot, peer)) violations[peer]--;
+                    touched.set(peer);
+                }
+            }
+            router[slot] = -1;
+            checks[slot] = 0;
+            violations[slot] = 0;
+        }
+
+        /** The triangle inequality through their shared router. */
+        private boolean consistent(int a, int b) {
+            double distance = distanceKm(latitude[a], longitude[a], latitude[b], longitude[b]);
+            return distance <= (delay[a] + delay[b]) * KM_PER_RTT_MS + SLACK_KM;
+        }
+
+        Landmark landmark(int slot) {
+            return new Landmark(ids[slot], ips[slot], name, latitude[slot], longitude[slot], reliable.get(slot));
+        }
+
+        private void grow() {
+            int n = ids.length * 2;
+            ids = Arrays.copyOf(ids, n);
+            ips = Arrays.copyOf(ips, n);
+            latitude = Arrays.copyOf(latitude, n);
+            longitude = Arrays.copyOf(longitude, n);
+            router = Arrays.copyOf(router, n);
+            memberIndex = Arrays.copyOf(memberIndex, n);
+            delay = Arrays.copyOf(delay, n);
+            fingerprint = Arrays.copyOf(fingerprint, n);
+            pathHash = Arrays.copyOf(pathHash, n);
+            tracedAt = Arrays.copyOf(tracedAt, n);
+            checks = Arrays.copyOf(checks, n);
+            violations = Arrays.copyOf(violations, n);
+        }
+    }
+}
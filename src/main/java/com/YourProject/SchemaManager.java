@@ -0,0 +1,222 @@
+package com.yourproject;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the indexes the application's queries rely on and checks, with
+ * explain, that the hot queries actually use them.
+ *
+ * Run once at startup from {@link DatabaseManager#initializeDatabase()}.
+ * Index creation is idempotent; a query whose winning plan still contains a
+ * COLLSCAN, or an in-memory SORT where the index should give the order, is
+ * logged as a warning (and counted in /api/metrics) rather than failing
+ * startup.
+ */
+public class SchemaManager {
+
+    /** GeoJSON point of a landmark, [longitude, latitude], for the 2dsphere index. */
+    public static final String LOCATION_FIELD = "location";
+
+    private static final AtomicInteger COLLECTION_SCANS = new AtomicInteger();
+    private static final AtomicInteger BLOCKING_SORTS = new AtomicInteger();
+
+    private SchemaManager() {
+    }
+
+    /**
+     * Creates the indexes, backfills the GeoJSON location of older landmarks
+     * and verifies the query plans.
+     */
+    public static void ensureSchema(MongoDatabase database) {
+        Metrics.gauge("lanmarker_schema_collection_scans", "Hot queries whose plan is a collection scan",
+                COLLECTION_SCANS::get);
+        Metrics.gauge("lanmarker_schema_blocking_sorts", "Paged queries sorted in memory instead of by an index",
+                BLOCKING_SORTS::get);
+        try {
+            MongoCollection<Document> landmarks = database.getCollection("landmarks");
+            MongoCollection<Document> cache = database.getCollection("bssid_cache");
+            ensureIndexes(landmarks, cache);
+            backfillLocations(landmarks);
+            verifyQueryPlans(landmarks, cache);
+        } catch (MongoException e) {
+            System.out.println("Schema setup failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The GeoJSON point for a landmark, or null if the coordinates are out of
+     * range (MongoDB rejects such a document once the 2dsphere index exists).
+     */
+    public static Document geoJsonPoint(double latitude, double longitude) {
+        if (!(Math.abs(latitude) <= 90) || !(Math.abs(longitude) <= 180)) return null;
+        return new Document("type", "Point").append("coordinates", Arrays.asList(longitude, latitude));
+    }
+
+    // --- Indexes ---
+
+    private static void ensureIndexes(MongoCollection<Document> landmarks, MongoCollection<Document> cache) {
+        long start = System.nanoTime();
+        landmarks.createIndexes(Arrays.asList(
+                // UpdateService: prefix rotations are written by interface_id.
+                new IndexModel(Indexes.ascending("interface_id"),
+                        new IndexOptions().name("interface_id")),
+                // The map: only reliable landmarks, by coordinates for the viewport queries;
+                // _id last so a page is read in index order (DatabaseManager.VIEW_ORDER).
+                new IndexModel(Indexes.ascending("is_reliable", "latitude", "longitude", "_id"),
+                        new IndexOptions().name("reliable_lat_lon_id")
+                                .partialFilterExpression(Filters.eq("is_reliable", true))),
+                // LandmarkStats / top-10 aggregations.
+                new IndexModel(Indexes.ascending("country"),
+                        new IndexOptions().name("country")
+                                .partialFilterExpression(Filters.exists("country"))),
+                new IndexModel(Indexes.ascending("as_name", "asn"),
+                        new IndexOptions().name("as_name_asn")
+                                .partialFilterExpression(Filters.exists("as_name"))),
+                new IndexModel(Indexes.geo2dsphere(LOCATION_FIELD),
+                        new IndexOptions().name(LOCATION_FIELD)),
+                // ReliabilityEngine: landmarks saved or rotated since the last pass.
+                new IndexModel(Indexes.ascending("created_at"),
+                        new IndexOptions().name("created_at")),
+                new IndexModel(Indexes.ascending("last_updated"),
+                        new IndexOptions().name("last_updated"))));
+        // BssidCacheStore.preload: most recently used entries first.
+        cache.createIndex(Indexes.descending("last_used"));
+        System.out.printf("MongoDB indexes ready in %d ms%n",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Adds the GeoJSON location to landmarks saved before it was stored.
+     */
+    private static void backfillLocations(MongoCollection<Document> landmarks) {
+        Bson missing = Filters.and(
+                Filters.exists(LOCATION_FIELD, false),
+                Filters.gte("latitude", -90), Filters.lte("latitude", 90),
+                Filters.gte("longitude", -180), Filters.lte("longitude", 180));
+        UpdateResult result = landmarks.updateMany(missing, List.of(new Document("$set",
+                new Document(LOCATION_FIELD, new Document("type", "Point")
+                        .append("coordinates", Arrays.asList("$longitude", "$latitude"))))));
+        if (result.getModifiedCount() > 0) {
+            System.out.printf("Backfilled GeoJSON location on %,d landmarks%n", result.getModifiedCount());
+        }
+    }
+
+    // --- Query plan verification ---
+
+    private static void verifyQueryPlans(MongoCollection<Document> landmarks, MongoCollection<Document> cache) {
+        COLLECTION_SCANS.set(0);
+        BLOCKING_SORTS.set(0);
+        check("prefix rotation by interface_id",
+                landmarks.find(Filters.eq("interface_id", "0000000000000000")).explain());
+        check("reliable landmarks for the map",
+                landmarks.find(Filters.eq("is_reliable", true)).explain());
+        // The first page of a low-zoom view, and a following page (keyset filter as in DatabaseManager).
+        checkSorted("reliable landmarks in view",
+                landmarks.find(Filters.and(Filters.eq("is_reliable", true),
+                                Filters.gte("latitude", -85), Filters.lte("latitude", 85),
+                                Filters.gte("longitude", -180), Filters.lte("longitude", 180)))
+                        .sort(DatabaseManager.VIEW_ORDER)
+                        .limit(DatabaseManager.DEFAULT_PAGE_SIZE)
+                        .explain());
+        checkSorted("next page of reliable landmarks in view",
+                landmarks.find(Filters.and(Filters.eq("is_reliable", true),
+                                Filters.gte("latitude", -85), Filters.lte("latitude", 85),
+                                Filters.gte("longitude", -180), Filters.lte("longitude", 180),
+                                Filters.gte("latitude", 40),
+                                Filters.or(Filters.gt("latitude", 40),
+                                        Filters.and(Filters.eq("latitude", 40), Filters.gt("longitude", 5)),
+                                        Filters.and(Filters.eq("latitude", 40), Filters.eq("longitude", 5),
+                                                Filters.gt("_id", "2001:db8::1")))))
+                        .sort(DatabaseManager.VIEW_ORDER)
+                        .limit(DatabaseManager.DEFAULT_PAGE_SIZE)
+                        .explain());
+        check("landmarks per country",
+                landmarks.aggregate(Arrays.asList(
+                        Aggregates.match(Filters.exists("country")),
+                        Aggregates.group("$country", Accumulators.sum("count", 1)))).explain());
+        check("landmarks per AS",
+                landmarks.aggregate(Arrays.asList(
+                        Aggregates.match(Filters.exists("as_name")),
+                        Aggregates.group(new Document("name", "$as_name").append("asn", "$asn"),
+                                Accumulators.sum("count", 1)))).explain());
+        Date since = new Date();
+        check("landmarks changed since the last reliability pass",
+                landmarks.find(Filters.or(Filters.gte("created_at", since), Filters.gte("last_updated", since)))
+                        .explain());
+        check("BSSID cache preload",
+                cache.find(Filters.gte("updated_at", new Date(0)))
+                        .sort(Sorts.descending("last_used"))
+                        .limit(1)
+                        .explain());
+    }
+
+    private static void check(String query, Document explain) {
+        check(query, explain, false);
+    }
+
+    /** As check, and also warns if the results are sorted in memory rather than read in index order. */
+    private static void checkSorted(String query, Document explain) {
+        check(query, explain, true);
+    }
+
+    private static void check(String query, Document explain, boolean indexOrder) {
+        List<String> indexes = new ArrayList<>();
+        List<String> stages = new ArrayList<>();
+        scanPlan(explain, indexes, stages);
+        if (stages.contains("COLLSCAN")) {
+            COLLECTION_SCANS.incrementAndGet();
+            System.out.println("WARNING: query '" + query + "' does a collection scan; check the indexes");
+        } else if (indexOrder && stages.contains("SORT")) {
+            BLOCKING_SORTS.incrementAndGet();
+            System.out.println("WARNING: query '" + query + "' sorts in memory; its index ("
+                    + String.join(", ", indexes) + ") doesn't give the sort order");
+        } else {
+            System.out.println("Query '" + query + "' uses index " + String.join(", ", indexes));
+        }
+    }
+
+    /**
+     * Walks an explain document (find or aggregate, classic or SBE planner),
+     * skipping rejected plans, and collects the index names and stage names
+     * of the winning plans.
+     */
+    private static void scanPlan(Object node, List<String> indexes, List<String> stages) {
+        if (node instanceof Document) {
+            for (Map.Entry<String, Object> e : ((Document) node).entrySet()) {
+                String key = e.getKey();
+                Object value = e.getValue();
+                if (key.equals("rejectedPlans")) continue;
+                if (key.equals("stage") && value instanceof String) stages.add((String) value);
+                if (key.equals("indexName") && value instanceof String && !indexes.contains(value)) {
+                    indexes.add((String) value);
+                }
+                scanPlan(value, indexes, stages);
+            }
+        } else if (node instanceof List) {
+            for (Object item : (List<?>) node) {
+                scanPlan(item, indexes, stages);
+            }
+        }
+    }
+}
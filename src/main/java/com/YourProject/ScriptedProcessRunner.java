@@ -0,0 +1,180 @@
+package com.yourproject;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A fake {@link ProcessRunner} for exercising the traceroute engine without
+ * the network: every "process" prints the lines its script returns for the
+ * target (the command's last argument), one every {@code lineDelayMillis},
+ * then exits with status 0.
+ *
+ * A {@link #HANG} line makes the process stop printing and stay alive until
+ * it is destroyed, to exercise the per-target timeout. Counts how many
+ * processes were started and how many ran at the same time.
+ */
+public class ScriptedProcessRunner implements ProcessRunner {
+
+    /** Script line that blocks the process until it is destroyed. */
+    public static final String HANG = "\u0000hang";
+
+    private final Function<String, List<String>> script;
+    private final long lineDelayMillis;
+
+    private final AtomicInteger started = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    public ScriptedProcessRunner(Function<String, List<String>> script, long lineDelayMillis) {
+        this.script = script;
+        this.lineDelayMillis = lineDelayMillis;
+    }
+
+    @Override
+    public Process start(List<String> command) {
+        List<String> lines = script.apply(command.get(command.size() - 1));
+        started.incrementAndGet();
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        return new ScriptedProcess(lines == null ? List.of() : lines);
+    }
+
+    public int startedCount() {
+        return started.get();
+    }
+
+    public int maxConcurrent() {
+        return maxRunning.get();
+    }
+
+    /**
+     * traceroute6 -n output for {@code target} through {@code routers}
+     * (null for a hop that didn't answer), with one RTT per hop, ending at
+     * the target with {@code targetRttMillis} (NaN to never reach it).
+     */
+    public static List<String> tracerouteOutput(String target, String[] routers, double[] rttMillis,
+                                                double targetRttMillis) {
+        List<String> lines = new ArrayList<>();
+        lines.add("traceroute to " + target + " (" + target + "), 30 hops max, 80 byte packets");
+        int ttl = 1;
+        for (int i = 0; i < routers.length; i++, ttl++) {
+            lines.add(routers[i] == null ? String.format("%2d  * * *", ttl)
+                    : String.format("%2d  %s  %.3f ms", ttl, routers[i], rttMillis[i]));
+        }
+        if (!Double.isNaN(targetRttMillis)) {
+            lines.add(String.format("%2d  %s  %.3f ms", ttl, target, targetRttMillis));
+        }
+        return lines;
+    }
+
+    // --- The fake process ---
+
+    private final class ScriptedProcess extends Process {
+        private final List<String> lines;
+        private final long startNanos = System.nanoTime();
+        private int nextLine = 0;
+        private byte[] current = new byte[0];
+        private int position = 0;
+        private boolean finished = false;
+        private boolean destroyed = false;
+
+        ScriptedProcess(List<String> lines) {
+            this.lines = lines;
+        }
+
+        private final InputStream output = new InputStream() {
+            @Override
+            public int read() {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0) return 0;
+                synchronized (ScriptedProcess.this) {
+                    if (position == current.length && !nextLine()) return -1;
+                    int n = Math.min(len, current.length - position);
+                    System.arraycopy(current, position, b, off, n);
+                    position += n;
+                    return n;
+                }
+            }
+        };
+
+        /** Waits until the next line is due; false at the end of the output. */
+        private boolean nextLine() {
+            try {
+                while (!destroyed) {
+                    if (nextLine == lines.size()) {
+                        exit();
+                        return false;
+                    }
+                    boolean hang = HANG.equals(lines.get(nextLine));
+                    long due = startNanos + TimeUnit.MILLISECONDS.toNanos(lineDelayMillis * (nextLine + 1));
+                    long waitMillis = hang ? 0 : TimeUnit.NANOSECONDS.toMillis(due - System.nanoTime());
+                    if (!hang && waitMillis <= 0) {
+                        current = (lines.get(nextLine++) + "\n").getBytes(StandardCharsets.UTF_8);
+                        position = 0;
+                        return true;
+                    }
+                    ScriptedProcess.this.wait(waitMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+
+        private void exit() {
+            if (!finished) {
+                finished = true;
+                running.decrementAndGet();
+                notifyAll();
+            }
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return output;
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return InputStream.nullInputStream();
+        }
+
+        @Override
+        public synchronized int waitFor() throws InterruptedException {
+            while (!finished) wait();
+            return exitValue();
+        }
+
+        @Override
+        public synchronized int exitValue() {
+            if (!finished) throw new IllegalThreadStateException("process hasn't exited");
+            return destroyed ? 137 : 0;
+        }
+
+        @Override
+        public synchronized void destroy() {
+            destroyed = true;
+            exit();
+        }
+
+        @Override
+        public synchronized boolean isAlive() {
+            return !finished;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.yourproject;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Request coalescing ("single flight") keyed by a long.
+ *
+ * While a load for a key is in flight, further callers for the same key share
+ * it instead of starting another load. The entry is removed as soon as the
+ * load completes, so this never serves stale results; caching is left to the
+ * caller.
+ *
+ * Every caller gets its own future. Cancelling it only detaches that caller;
+ * the load itself is cancelled once all of its callers have cancelled.
+ */
+public class SingleFlight<V> {
+
+    private final ConcurrentHashMap<Long, Flight> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+
+    /**
+     * Joins the in-flight load for {@code key}, or starts {@code loader} if there is none.
+     */
+    public CompletableFuture<V> run(long key, Supplier<CompletableFuture<V>> loader) {
+        while (true) {
+            Flight existing = inFlight.get(key);
+            if (existing != null) {
+                CompletableFuture<V> waiter = existing.attach();
+                if (waiter != null) {
+                    coalesced.increment();
+                    return waiter;
+                }
+                inFlight.remove(key, existing); // abandoned by all its callers
+                continue;
+            }
+
+            Flight mine = new Flight(key);
+            if (inFlight.putIfAbsent(key, mine) != null) continue;
+            issued.increment();
+            CompletableFuture<V> waiter = mine.attach();
+
+            CompletableFuture<V> load;
+            try {
+                load = loader.get();
+            } catch (RuntimeException e) {
+                load = CompletableFuture.failedFuture(e);
+            }
+            mine.start(load);
+            return waiter;
+        }
+    }
+
+    public int inFlightCount() { return inFlight.size(); }
+    public long issuedCount() { return issued.sum(); }
+    public long coalescedCount() { return coalesced.sum(); }
+    /** Loads cancelled because every caller cancelled. */
+    public long abandonedCount() { return abandoned.sum(); }
+
+    /** Fraction of requests that attached to an existing flight. */
+    public double coalescingRatio() {
+        long c = coalesced.sum();
+        long total = c + issued.sum();
+        return total == 0 ? 0 : (double) c / total;
+    }
+
+    private final class Flight {
+        private final long key;
+        private final CompletableFuture<V> shared = new CompletableFuture<>();
+        private CompletableFuture<V> load;  // guarded by 'this'
+        private int waiters;                // guarded by 'this'
+        private boolean cancelled;          // guarded by 'this'
+
+        Flight(long key) {
+            this.key = key;
+        }
+
+        /** A new caller's future, or null if the flight was already abandoned. */
+        synchronized CompletableFuture<V> attach() {
+            if (cancelled) return null;
+            waiters++;
+            CompletableFuture<V> waiter = shared.copy();
+            waiter.whenComplete((value, error) -> {
+                if (waiter.isCancelled()) detach();
+            });
+            return waiter;
+        }
+
+        void start(CompletableFuture<V> load) {
+            boolean cancelNow;
+            synchronized (this) {
+                this.load = load;
+                cancelNow = cancelled;
+            }
+            load.whenComplete((value, error) -> {
+                inFlight.remove(key, this);
+                if (error != null) {
+                    shared.completeExceptionally(error);
+                } else {
+                    shared.complete(value);
+                }
+            });
+            if (cancelNow) load.cancel(false);
+        }
+
+        private void detach() {
+            CompletableFuture<V> toCancel;
+            synchronized (this) {
+                if (--waiters > 0 || shared.isDone()) return;
+                cancelled = true;
+                toCancel = load; // null if the loader is still running; start() cancels it then
+            }
+            abandoned.increment();
+            inFlight.remove(key, this);
+            if (toCancel != null) toCancel.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.yourproject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Runs many traceroutes in parallel for the landmark evaluation.
+ *
+ * Each target gets its own traceroute6 process, at most {@code maxConcurrent}
+ * at a time, on virtual threads where available (see {@link VirtualThreads}).
+ * Hops are parsed line by line as the output arrives, and a trace stops as
+ * soon as the target answers, after {@link #MAX_SILENT_HOPS} silent hops in a
+ * row, or when its timeout expires; in every case the hops seen so far are
+ * kept. Processes come from a {@link ProcessRunner}, so the engine can be
+ * driven by {@link ScriptedProcessRunner} instead of the network.
+ */
+public class TracerouteEngine implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_CONCURRENT = 256;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30_000;
+    public static final int MAX_HOPS = 30;
+    /** A trace with this many unanswered hops in a row won't reach its target. */
+    public static final int MAX_SILENT_HOPS = 5;
+
+    private static final Metrics.Counter REACHED = tracesCounter(Status.REACHED);
+    private static final Metrics.Counter UNREACHED = tracesCounter(Status.UNREACHED);
+    private static final Metrics.Counter TIMED_OUT = tracesCounter(Status.TIMED_OUT);
+    private static final Metrics.Counter FAILED = tracesCounter(Status.FAILED);
+    private static final LatencyHistogram TRACE_TIME = Metrics.histogram(
+            "lanmarker_traceroute_seconds", "Time per traceroute, including timed out ones");
+
+    public enum Status { REACHED, UNREACHED, TIMED_OUT, FAILED }
+
+    /** One hop: the first address that answered and the fastest RTT seen. */
+    public static final class Hop {
+        public final int ttl;
+        public final String address;    // null if nothing answered
+        public final double rttMillis;  // NaN if nothing answered
+
+        public Hop(int ttl, String address, double rttMillis) {
+            this.ttl = ttl;
+            this.address = address;
+            this.rttMillis = rttMillis;
+        }
+
+        public boolean answered() {
+            return address != null;
+        }
+
+        @Override
+        public String toString() {
+            return ttl + " " + (address == null ? "*" : address + " " + rttMillis + " ms");
+        }
+    }
+
+    /** The outcome of one traceroute. */
+    public static final class Trace {
+        public final String target;
+        public final Status status;
+        public final List<Hop> hops;
+        public final long elapsedMillis;
+
+        Trace(String target, Status status, List<Hop> hops, long elapsedMillis) {
+            this.target = target;
+            this.status = status;
+            this.hops = Collections.unmodifiableList(hops);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /** The target's own hop, or null if it never answered. */
+        public Hop targetHop() {
+            return status == Status.REACHED ? hops.get(hops.size() - 1) : null;
+        }
+
+        /** The last router that answered before the target, or null. */
+        public Hop lastRouter() {
+            for (int i = hops.size() - 1; i >= 0; i--) {
+                Hop hop = hops.get(i);
+                if (hop.answered() && !hop.address.equals(target)) return hop;
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return target + " " + status + " (" + hops.size() + " hops, " + elapsedMillis + " ms)";
+        }
+    }
+
+    private final ProcessRunner runner;
+    private final long timeoutMillis;
+    private final Semaphore permits;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService watchdog;
+    private final AtomicBoolean startFailureLogged = new AtomicBoolean();
+
+    public TracerouteEngine() {
+        this(ProcessRunner.SYSTEM, DEFAULT_MAX_CONCURRENT, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param maxConcurrent traceroutes running at the same time.
+     * @param timeoutMillis per target; the process is killed after that.
+     */
+    public TracerouteEngine(ProcessRunner runner, int maxConcurrent, long timeoutMillis) {
+        this.runner = runner;
+        this.timeoutMillis = timeoutMillis;
+        this.permits = new Semaphore(maxConcurrent);
+        this.executor = VirtualThreads.newExecutor("traceroute", maxConcurrent);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "traceroute-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        Metrics.gauge("lanmarker_traceroutes_running", "Traceroute processes running",
+                () -> maxConcurrent - permits.availablePermits());
+    }
+
+    /**
+     * Starts a traceroute to {@code target}; never completes exceptionally
+     * (a process that can't be started gives a FAILED trace).
+     */
+    public CompletableFuture<Trace> trace(String target) {
+        return CompletableFuture.supplyAsync(() -> {
+            permits.acquireUninterruptibly();
+            try {
+                return run(target);
+            } finally {
+                permits.release();
+            }
+        }, executor);
+    }
+
+    /**
+     * Traces every target and hands each result to {@code onTrace} as it
+     * completes (from the engine's threads); returns when all are done.
+     */
+    public void traceAll(Collection<String> targets, Consumer<Trace> onTrace) {
+        CompletableFuture<?>[] all = new CompletableFuture<?>[targets.size()];
+        int i = 0;
+        for (String target : targets) {
+            all[i++] = trace(target).thenAccept(onTrace);
+        }
+        CompletableFuture.allOf(all).join();
+    }
+
+    /** The traceroute6 command line for a target. */
+    protected List<String> command(String target) {
+        long waitSeconds = Math.max(1, Math.min(5, timeoutMillis / 1000 / MAX_HOPS));
+        return Arrays.asList("traceroute6", "-n", "-q", "1", "-w", Long.toString(waitSeconds),
+                "-m", Integer.toString(MAX_HOPS), target);
+    }
+
+    private Trace run(String target) {
+        long start = System.nanoTime();
+        List<Hop> hops = new ArrayList<>();
+        Status status = Status.UNREACHED;
+        Process process;
+        try {
+            process = runner.start(command(target));
+        } catch (IOException e) {
+            if (startFailureLogged.compareAndSet(false, true)) {
+                System.out.println("Could not start traceroute6: " + e.getMessage());
+            }
+            return finish(new Trace(target, Status.FAILED, hops, elapsedMillis(start)));
+        }
+
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> kill = watchdog.schedule(() -> {
+            timedOut.set(true);
+            process.destroyForcibly();
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            int silent = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Hop hop = parseHop(line);
+                if (hop == null) continue;
+                hops.add(hop);
+                if (target.equalsIgnoreCase(hop.address)) {
+                    status = Status.REACHED;
+                    break;
+                }
+                silent = hop.answered() ? 0 : silent + 1;
+                if (silent == MAX_SILENT_HOPS) break;
+            }
+        } catch (IOException e) {
+            // The watchdog closed the stream under us.
+        } finally {
+            kill.cancel(false);
+            process.destroyForcibly();
+        }
+        if (timedOut.get() && status != Status.REACHED) {
+            status = Status.TIMED_OUT;
+        }
+        return finish(new Trace(target, status, hops, elapsedMillis(start)));
+    }
+
+    private static Trace finish(Trace trace) {
+        switch (trace.status) {
+            case REACHED: REACHED.inc(); break;
+            case UNREACHED: UNREACHED.inc(); break;
+            case TIMED_OUT: TIMED_OUT.inc(); break;
+            default: FAILED.inc();
+        }
+        TRACE_TIME.record(TimeUnit.MILLISECONDS.toNanos(trace.elapsedMillis));
+        return trace;
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Parses one line of {@code traceroute6 -n} output, e.g.
+     * {@code " 3  2001:db8::1  5.104 ms * 2001:db8::2  5.311 ms !H"}.
+     *
+     * @return the hop, or null for the header and anything else that isn't one.
+     */
+    public static Hop parseHop(String line) {
+        String[] tokens = line.trim().split("\\s+");
+        if (tokens.length < 2) return null;
+        int ttl;
+        try {
+            ttl = Integer.parseInt(tokens[0]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        String address = null;
+        double rtt = Double.NaN;
+        for (int i = 1; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (token.equals("*") || token.startsWith("!") || token.equals("ms")) continue;
+            if (i + 1 < tokens.length && tokens[i + 1].equals("ms")) {
+                try {
+                    double value = Double.parseDouble(token);
+                    if (!(value >= rtt)) rtt = value; // the fastest probe; also replaces NaN
+                    continue;
+                } catch (NumberFormatException e) {
+                    // not an RTT after all
+                }
+            }
+            if (address == null && (token.indexOf(':') >= 0 || token.indexOf('.') >= 0)) {
+                address = token.startsWith("(") ? token.substring(1, token.length() - 1) : token;
+            }
+        }
+        return new Hop(ttl, address, address == null ? Double.NaN : rtt);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    private static Metrics.Counter tracesCounter(Status status) {
+        return Metrics.counter("lanmarker_traceroutes_total", "Traceroutes by outcome",
+                "status", status.name().toLowerCase());
+    }
+}
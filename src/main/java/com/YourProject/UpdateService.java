@@ -1,55 +1,223 @@
-// Inside src/main/java/com/yourproject/UpdateService.java
-//
-// Add these imports at the top:
+package com.yourproject;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
 import org.bson.Document;
-// (end of new imports)
 
-// (All other code in the file is the same... just replace the method below)
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prefix Stability Tracking.
+ * Keeps every landmark's current prefix in memory (keyed by IID), detects
+ * rotations locally and writes them back to MongoDB in periodic batches.
+ * New landmarks are tracked once inserted (as a LandmarkListener of the
+ * importer's LandmarkWriter), so a failed insert leaves nothing to rotate.
+ */
+public class UpdateService implements LandmarkListener {
+
+    private static final long FLUSH_INTERVAL_SECONDS = 30;
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private final PrefixRotationTracker tracker = new PrefixRotationTracker();
+    private static final Metrics.Counter ROTATIONS = Metrics.counter(
+            "lanmarker_prefix_rotations_total", "Tracked IIDs seen under a new prefix");
+    private static final Metrics.Counter ROTATIONS_WRITTEN = Metrics.counter(
+            "lanmarker_prefix_rotations_written_total", "Prefix rotations flushed to MongoDB");
+    private static final LatencyHistogram FLUSH_TIME = Metrics.histogram(
+            "lanmarker_prefix_rotation_flush_seconds", "Time to write one round of prefix rotations");
+
+    private final AtomicLong rotations = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Loads the known landmarks into the tracker and starts the periodic flush.
+     */
+    public void start() {
+        Metrics.gauge("lanmarker_tracked_iids", "Landmark IIDs tracked for prefix rotation", tracker::size);
+        loadTrackedLandmarks();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "prefix-rotation-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushRotations,
+                FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        System.out.println("UpdateService started, tracking " + tracker.size() + " IIDs.");
+    }
+
+    /** Whether {@link #start} was called (so rotations have somewhere to go). */
+    public boolean isStarted() {
+        return scheduler != null;
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        flushRotations();
+    }
 
     /**
-     * This is the core update logic for MongoDB.
+     * This is the core update logic.
      * It's called by the DataImporter for every EUI-64 IP it finds.
+     *
+     * @return true if the IID is already a landmark (so it needs no new lookup).
+     */
+    public boolean checkForPrefixRotation(byte[] address) {
+        long iid = Ipv6Bytes.interfaceId(address);
+        long prefix = Ipv6Bytes.prefix(address);
+
+        PrefixRotationTracker.Result result = tracker.observe(iid, prefix);
+        if (result == PrefixRotationTracker.Result.ROTATED) {
+            rotations.incrementAndGet();
+            ROTATIONS.inc();
+        }
+        // If the IID is untracked, the DataImporter will save it.
+        return result != PrefixRotationTracker.Result.UNTRACKED;
+    }
+
+    /**
+     * String form kept for callers that don't have the raw address bytes.
+     */
+    public boolean checkForPrefixRotation(String newIp) {
+        byte[] address = Ipv6Bytes.parse(newIp);
+        return address != null && checkForPrefixRotation(address);
+    }
+
+    /**
+     * Starts tracking a landmark under the IID and prefix of {@code address}.
+     */
+    public void trackLandmark(byte[] address) {
+        tracker.track(Ipv6Bytes.interfaceId(address), Ipv6Bytes.prefix(address));
+    }
+
+    /** Starts tracking a newly inserted landmark; its _id is the address it was found with. */
+    @Override
+    public void landmarkAdded(Document landmark) {
+        byte[] address = Ipv6Bytes.parse(String.valueOf(landmark.get("_id")));
+        if (address != null) {
+            trackLandmark(address);
+        }
+    }
+
+    public long rotationCount() {
+        return rotations.get();
+    }
+
+    /**
+     * Writes all pending rotations as batched updates keyed by interface_id.
+     * Only the changed fields are written; the document keeps its original _id.
+     * Rotations whose write fails go back to the tracker for the next flush.
+     *
+     * @return false if some rotations weren't written.
      */
-    public void checkForPrefixRotation(String newIp, String iid) {
+    public boolean flushRotations() {
+        long startNanos = System.nanoTime();
+        boolean written = false;
         try {
             MongoCollection<Document> landmarks = DatabaseManager.getLandmarksCollection();
-            
-            // Find a landmark with this IID
-            Document existingLandmark = landmarks.find(Filters.eq("interface_id", iid)).first();
-
-            if (existingLandmark != null) { // We are tracking this IID
-                String oldIp = existingLandmark.getString("_id");
-                
-                if (!oldIp.equals(newIp)) {
-                    // Prefix Rotation Detected!
-                    System.out.println("Prefix rotation detected for IID: " + iid + ". Updating " + oldIp + " -> " + newIp);
-
-                    // We must delete the old document and insert a new one
-                    // because we are using the IP address as the unique _id.
-                    
-                    // 1. Delete the old landmark
-                    landmarks.deleteOne(Filters.eq("_id", oldIp));
-                    
-                    // 2. Insert the new landmark (by re-using the old data)
-                    Document newLandmarkDoc = new Document("_id", newIp)
-                        .append("interface_id", existingLandmark.getString("interface_id"))
-                        .append("wan_mac", existingLandmark.getString("wan_mac"))
-                        .append("latitude", existingLandmark.getDouble("latitude"))
-                        .append("longitude", existingLandmark.getDouble("longitude"))
-                        .append("source_offset", existingLandmark.getInteger("source_offset"))
-                        .append("is_reliable", existingLandmark.getBoolean("is_reliable", false))
-                        .append("is_dynamic", true) // Mark as dynamic
-                        .append("created_at", existingLandmark.getDate("created_at"))
-                        .append("last_updated", new java.util.Date()); // Set new update time
-
-                    landmarks.insertOne(newLandmarkDoc);
+            RotationBatch batch = new RotationBatch();
+            Date now = new Date();
+
+            int drained = tracker.drainPending((iid, prefix) -> {
+                batch.add(iid, prefix, now);
+                if (batch.size() == MAX_BATCH_SIZE) {
+                    writeBatch(landmarks, batch);
                 }
+            });
+            writeBatch(landmarks, batch);
+
+            if (drained > 0) {
+                System.out.println("Prefix rotations flushed: " + drained
+                        + (batch.failed > 0 ? " (" + batch.failed + " failed, retried on the next flush)" : ""));
+            }
+            ROTATIONS_WRITTEN.add(drained - batch.failed);
+            written = batch.failed == 0;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        FLUSH_TIME.recordSince(startNanos);
+        return written;
+    }
+
+    // --- Helpers ---
+
+    /** Update models plus the (IID, prefix) each came from, so failed ones can be requeued. */
+    private static final class RotationBatch {
+        final List<WriteModel<Document>> models = new ArrayList<>();
+        final long[] iids = new long[MAX_BATCH_SIZE];
+        final long[] prefixes = new long[MAX_BATCH_SIZE];
+        int failed = 0;
+
+        void add(long iid, long prefix, Date now) {
+            iids[models.size()] = iid;
+            prefixes[models.size()] = prefix;
+            String newIp = Ipv6Bytes.format(Ipv6Bytes.fromParts(prefix, iid));
+            models.add(new UpdateOneModel<>(
+                    Filters.eq("interface_id", Ipv6Bytes.hex64(iid)),
+                    Updates.combine(
+                            Updates.set("current_ip", newIp),
+                            Updates.set("is_dynamic", true), // Mark as dynamic
+                            Updates.set("last_updated", now))));
+        }
+
+        int size() {
+            return models.size();
+        }
+    }
+
+    private void writeBatch(MongoCollection<Document> landmarks, RotationBatch batch) {
+        if (batch.models.isEmpty()) return;
+        try {
+            landmarks.bulkWrite(batch.models, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            // Unordered: only the models with an error weren't applied.
+            for (BulkWriteError error : e.getWriteErrors()) {
+                tracker.requeue(batch.iids[error.getIndex()], batch.prefixes[error.getIndex()]);
+                batch.failed++;
+            }
+            System.out.println("Prefix rotation batch: " + e.getWriteErrors().size() + " updates failed");
+        } catch (RuntimeException e) {
+            for (int i = 0; i < batch.models.size(); i++) {
+                tracker.requeue(batch.iids[i], batch.prefixes[i]);
             }
-            // If existingLandmark is null, the DataImporter will save it.
-            
+            batch.failed += batch.models.size();
+            System.out.println("Prefix rotation batch failed: " + e.getMessage());
+        }
+        batch.models.clear();
+    }
+
+    private void loadTrackedLandmarks() {
+        long start = System.nanoTime();
+        try {
+            DatabaseManager.getLandmarksCollection()
+                    .find()
+                    .projection(Projections.include("current_ip"))
+                    .forEach(doc -> {
+                        String ip = DatabaseManager.currentIp(doc);
+                        byte[] address = ip != null ? Ipv6Bytes.parse(ip) : null;
+                        if (address != null) {
+                            trackLandmark(address);
+                        }
+                    });
         } catch (Exception e) {
             e.printStackTrace();
         }
-    }
\ No newline at end of file
+        System.out.printf("Loaded %,d tracked IIDs in %d ms%n",
+                tracker.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
\ No newline at end of file
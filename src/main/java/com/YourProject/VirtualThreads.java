@@ -0,0 +1,62 @@
+package com.yourproject;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for blocking I/O work (processes, sockets, MongoDB) that use
+ * virtual threads when the JVM has them (Java 21+) and a bounded pool of
+ * daemon platform threads otherwise.
+ *
+ * The project still builds for Java 17, so the Java 21 API is looked up
+ * reflectively. Callers that need a concurrency limit must enforce it
+ * themselves (e.g. with a Semaphore): a virtual-thread executor starts a
+ * thread for every task.
+ */
+public final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL = lookup(Thread.class, "ofVirtual");
+
+    private VirtualThreads() {
+    }
+
+    public static boolean available() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * A thread-per-task executor on virtual threads named {@code name-N}, or,
+     * before Java 21, a fixed pool of {@code platformThreads} daemon threads.
+     */
+    public static ExecutorService newExecutor(String name, int platformThreads) {
+        if (OF_VIRTUAL != null) {
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Object builder = OF_VIRTUAL.invoke(null);
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+                ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+                return (ExecutorService) Executors.class
+                        .getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Virtual threads unavailable, using platform threads: " + e);
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(platformThreads, r -> {
+            Thread t = new Thread(r, name + "-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static Method lookup(Class<?> type, String method) {
+        try {
+            return type.getMethod(method);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.yourproject;
+
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Central scheduler for WiGLE API requests.
+ *
+ * Callers submit a request and get a CompletableFuture back straight away; a
+ * single dispatcher thread decides when each request actually goes out:
+ * - a token bucket caps requests per second,
+ * - a semaphore caps requests in flight,
+ * - 429 and 5xx responses halve the rate and pause dispatch with exponential
+ *   backoff (honouring Retry-After); successes slowly raise the rate again,
+ * - a throttled request is queued again and re-sent after the backoff, up to
+ *   MAX_ATTEMPTS times, then fails with a ThrottledException (never handed
+ *   back as an ordinary response, so callers can't mistake it for a miss),
+ * - a daily budget (reset at 00:00 UTC) fails requests fast once spent.
+ * Requests whose future was cancelled while queued are never sent. Once a
+ * request has been sent, cancel() has no effect, so its response (and the
+ * quota spent on it) is never thrown away.
+ */
+public class WigleRequestScheduler {
+
+    /** Thrown (inside the future) when the daily budget is spent. */
+    public static class QuotaExhaustedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public QuotaExhaustedException(String message) {
+            super(message);
+        }
+    }
+
+    /** Thrown (inside the future) when a request was still throttled after MAX_ATTEMPTS tries. */
+    public static class ThrottledException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ThrottledException(String message) {
+            super(message);
+        }
+    }
+
+    static final int MAX_ATTEMPTS = 5;
+
+    private static final long MIN_BACKOFF_MILLIS = 1_000;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+    private static final double MIN_RATE_FRACTION = 0.05;
+    private static final double RATE_RECOVERY_FRACTION = 0.02;
+
+    private static final int QUEUED = 0;
+    private static final int SENT = 1;
+    private static final int CANCELLED = 2;
+
+    /** The caller's future; it can only be cancelled while still queued. */
+    private static final class Task extends CompletableFuture<HttpResponse<String>> {
+        final Supplier<CompletableFuture<HttpResponse<String>>> sender;
+        final long enqueuedNanos = System.nanoTime();
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+        int attempts; // only touched by the dispatcher and the response callback of the current attempt
+
+        Task(Supplier<CompletableFuture<HttpResponse<String>>> sender) {
+            this.sender = sender;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return state.compareAndSet(QUEUED, CANCELLED) && super.cancel(mayInterruptIfRunning);
+        }
+    }
+
+    private final double maxRequestsPerSecond;
+    private final int maxInFlight;
+    private final long dailyQuota;
+
+    private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+    private final Semaphore inFlight;
+    private final Thread dispatcher;
+
+    // --- Token bucket + adaptive rate (rate written by response callbacks) ---
+    private volatile double currentRate;
+    private double tokens = 1;
+    private long lastRefillNanos = System.nanoTime();
+    private volatile long backoffUntilNanos = 0;
+    private long backoffMillis = MIN_BACKOFF_MILLIS; // guarded by 'this'
+
+    // --- Daily budget ---
+    private LocalDate quotaDay = LocalDate.now(ZoneOffset.UTC);
+    private long usedToday = 0;
+
+    // --- Metrics ---
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public WigleRequestScheduler(double maxRequestsPerSecond, int maxInFlight, long dailyQuota) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+        this.maxInFlight = maxInFlight;
+        this.dailyQuota = dailyQuota;
+        this.currentRate = maxRequestsPerSecond;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.dispatcher = new Thread(this::dispatchLoop, "wigle-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * Queues a request. {@code sender} is only invoked when the scheduler lets it go out.
+     */
+    public CompletableFuture<HttpResponse<String>> submit(Supplier<CompletableFuture<HttpResponse<String>>> sender) {
+        Task task = new Task(sender);
+        queue.add(task);
+        return task;
+    }
+
+    public int queueDepth() { return queue.size(); }
+    public int inFlightCount() { return maxInFlight - inFlight.availablePermits(); }
+    public long sentCount() { return sent.get(); }
+    public long throttledCount() { return throttled.get(); }
+    public long retriedCount() { return retried.get(); }
+    public long rejectedCount() { return rejected.get(); }
+    public long cancelledCount() { return cancelled.get(); }
+    public double currentRate() { return currentRate; }
+
+    public synchronized long remainingQuota() {
+        rollQuotaDay();
+        return Math.max(0, dailyQuota - usedToday);
+    }
+
+    public double averageWaitMillis() {
+        long n = sent.get();
+        return n == 0 ? 0 : totalWaitNanos.get() / 1e6 / n;
+    }
+
+    public double maxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d sent, %,d throttled, %,d retried, %,d over quota, %,d cancelled, queue %d, "
+                        + "in flight %d, rate %.1f/s, wait avg %.1f ms max %.1f ms, quota left %,d",
+                sentCount(), throttledCount(), retriedCount(), rejectedCount(), cancelledCount(), queueDepth(),
+                inFlightCount(),
+                currentRate(), averageWaitMillis(), maxWaitMillis(), remainingQuota());
+    }
+
+    // --- Dispatcher ---
+
+    private void dispatchLoop() {
+        while (true) {
+            Task task;
+            try {
+                task = queue.take();
+                if (task.isCancelled()) {
+                    cancelled.incrementAndGet();
+                    continue;
+                }
+
+                if (!reserveQuota()) {
+                    rejected.incrementAndGet();
+                    task.completeExceptionally(
+                            new QuotaExhaustedException("WiGLE daily quota of " + dailyQuota + " requests used up"));
+                    continue;
+                }
+
+                inFlight.acquire();
+                waitForBackoff();
+                waitForToken();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (!task.state.compareAndSet(QUEUED, SENT)) { // cancelled while we waited
+                cancelled.incrementAndGet();
+                inFlight.release();
+                releaseQuota();
+                continue;
+            }
+
+            long waited = System.nanoTime() - task.enqueuedNanos;
+            totalWaitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            sent.incrementAndGet();
+            task.attempts++;
+
+            CompletableFuture<HttpResponse<String>> response;
+            try {
+                response = task.sender.get();
+            } catch (RuntimeException e) {
+                inFlight.release();
+                task.completeExceptionally(e);
+                continue;
+            }
+            response.whenComplete((r, error) -> {
+                inFlight.release();
+                if (error != null) {
+                    task.completeExceptionally(error);
+                    return;
+                }
+                if (onResponse(r)) {
+                    retryOrFail(task, r.statusCode());
+                    return;
+                }
+                task.complete(r);
+            });
+        }
+    }
+
+    /**
+     * Adapts the rate and backoff to a response.
+     *
+     * @return true if it was throttled (429 or 5xx).
+     */
+    private boolean onResponse(HttpResponse<String> response) {
+        int status = response.statusCode();
+        if (status == 429 || status >= 500) {
+            throttled.incrementAndGet();
+            long delay;
+            synchronized (this) {
+                currentRate = Math.max(maxRequestsPerSecond * MIN_RATE_FRACTION, currentRate / 2);
+                delay = response.headers().firstValue("Retry-After")
+                        .map(WigleRequestScheduler::parseRetryAfterMillis)
+                        .orElse(backoffMillis);
+                backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+            }
+            backoffUntilNanos = Math.max(backoffUntilNanos, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+            return true;
+        }
+        synchronized (this) {
+            backoffMillis = MIN_BACKOFF_MILLIS;
+            currentRate = Math.min(maxRequestsPerSecond,
+                    currentRate + maxRequestsPerSecond * RATE_RECOVERY_FRACTION);
+        }
+        return false;
+    }
+
+    /**
+     * Queues a throttled request again (the dispatcher holds it back until the
+     * backoff is over), or fails it once it has had MAX_ATTEMPTS tries.
+     */
+    private void retryOrFail(Task task, int status) {
+        if (task.attempts >= MAX_ATTEMPTS) {
+            task.completeExceptionally(new ThrottledException(
+                    "WiGLE request still throttled (HTTP " + status + ") after " + task.attempts + " attempts"));
+            return;
+        }
+        retried.incrementAndGet();
+        task.state.set(QUEUED); // cancellable again while it waits
+        queue.add(task);
+    }
+
+    private void waitForBackoff() throws InterruptedException {
+        long remaining;
+        while ((remaining = backoffUntilNanos - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    private void waitForToken() throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            double rate = currentRate;
+            tokens = Math.min(Math.max(1, rate), tokens + (now - lastRefillNanos) / 1e9 * rate);
+            lastRefillNanos = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return;
+            }
+            TimeUnit.NANOSECONDS.sleep((long) ((1 - tokens) / rate * 1e9));
+        }
+    }
+
+    private synchronized boolean reserveQuota() {
+        rollQuotaDay();
+        if (usedToday >= dailyQuota) return false;
+        usedToday++;
+        return true;
+    }
+
+    private synchronized void releaseQuota() {
+        if (usedToday > 0) usedToday--;
+    }
+
+    private void rollQuotaDay() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        if (!today.equals(quotaDay)) {
+            quotaDay = today;
+            usedToday = 0;
+        }
+    }
+
+    private static long parseRetryAfterMillis(String value) {
+        try {
+            return Math.min(MAX_BACKOFF_MILLIS, Math.max(0, Long.parseLong(value.trim()) * 1000));
+        } catch (NumberFormatException e) {
+            return MIN_BACKOFF_MILLIS; // HTTP-date form; just use the minimum
+        }
+    }
+}
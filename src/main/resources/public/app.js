@@ -7,10 +7,14 @@ document.addEventListener("DOMContentLoaded", () => {
         attribution: '&copy; <a href="https://www.openstreetmap.org/copyright">OpenStreetMap</a> contributors'
     }).addTo(map);
 
-    // Create a cluster group for map markers
+    // Individual landmarks once zoomed in past the server's cluster tiles
     const markers = L.markerClusterGroup();
     map.addLayer(markers);
 
+    // Server-side clusters (/api/tiles) at lower zoom levels
+    const clusterLayer = L.layerGroup();
+    map.addLayer(clusterLayer);
+
     // --- 2. Update Timestamp ---
     const timestampEl = document.getElementById('timestamp');
     function updateTime() {
@@ -50,29 +54,141 @@ document.addEventListener("DOMContentLoaded", () => {
             const asRes = await fetch('/api/stats/top-as');
             const asData = await asRes.json();
             populateList('ipv6-top-as', asData);
+        } catch (error) {
+            console.error("Error updating dashboard:", error);
+        }
+
+        await updateMap();
+    }
+
+    // --- 4. Load Map Points for the Visible Area ---
+
+    // Pages are streamed by the server; stop after this many points per refresh.
+    const MAX_MAP_POINTS = 50000;
+    const TILE_SIZE = 256;
+    const TILE_MAX_AGE_MS = 25000; // refetch on the next 30 s refresh
+    let clusterMaxZoom = 12;       // updated from the server's tiles
+    const tileCache = new Map();   // "z/x/y" -> { time, clusters }
+    let mapRequest = 0; // newer requests supersede older ones
+
+    // Leaflet bounds can run past +/-180 after panning around the world.
+    function wrapLng(lng) {
+        return ((lng + 180) % 360 + 360) % 360 - 180;
+    }
+
+    function viewportQuery() {
+        const b = map.getBounds();
+        let west = b.getWest(), east = b.getEast();
+        if (east - west >= 360) {
+            west = -180; east = 180;
+        } else {
+            west = wrapLng(west); east = wrapLng(east); // west > east crosses the antimeridian
+        }
+        const south = Math.max(-90, b.getSouth()), north = Math.min(90, b.getNorth());
+        return `bbox=${west},${south},${east},${north}&zoom=${map.getZoom()}`;
+    }
+
+    async function updateMap() {
+        if (map.getZoom() <= clusterMaxZoom) {
+            await updateClusters();
+        } else {
+            await updatePoints();
+        }
+    }
+
+    async function fetchTile(z, x, y) {
+        const key = `${z}/${x}/${y}`;
+        const cached = tileCache.get(key);
+        if (cached && Date.now() - cached.time < TILE_MAX_AGE_MS) return cached.clusters;
+        const tile = await (await fetch(`/api/tiles/${key}?reliable=true`)).json();
+        clusterMaxZoom = tile.maxZoom;
+        if (tileCache.size > 5000) tileCache.clear();
+        tileCache.set(key, { time: Date.now(), clusters: tile.clusters });
+        return tile.clusters;
+    }
+
+    function clusterIcon(count) {
+        const size = count < 100 ? 'small' : count < 1000 ? 'medium' : 'large';
+        return L.divIcon({
+            html: `<div><span>${count.toLocaleString()}</span></div>`,
+            className: `marker-cluster marker-cluster-${size}`,
+            iconSize: L.point(40, 40)
+        });
+    }
+
+    async function updateClusters() {
+        const request = ++mapRequest;
+        const z = map.getZoom();
+        const n = 2 ** z;
+        const pixels = map.getPixelBounds();
+        const minY = Math.max(0, Math.floor(pixels.min.y / TILE_SIZE));
+        const maxY = Math.min(n - 1, Math.floor((pixels.max.y - 1) / TILE_SIZE));
+
+        // Tile columns repeat around the world; shift their points into the copy on screen.
+        const requests = [];
+        for (let tx = Math.floor(pixels.min.x / TILE_SIZE); tx <= Math.floor((pixels.max.x - 1) / TILE_SIZE); tx++) {
+            const x = ((tx % n) + n) % n;
+            const lngShift = Math.floor(tx / n) * 360;
+            for (let y = minY; y <= maxY; y++) {
+                requests.push(fetchTile(z, x, y).then(clusters => ({ clusters, lngShift })));
+            }
+        }
+
+        try {
+            const tiles = await Promise.all(requests);
+            if (request !== mapRequest) return; // the map moved again meanwhile
+
+            const newClusters = [];
+            tiles.forEach(({ clusters, lngShift }) => clusters.forEach(cluster => {
+                const latLng = [cluster.lat, cluster.lng + lngShift];
+                const marker = L.marker(latLng, { icon: clusterIcon(cluster.count) });
+                marker.on('click', () => map.setView(latLng, Math.min(z + 2, map.getMaxZoom())));
+                newClusters.push(marker);
+            }));
 
-            // Fetch map points (from our old API)
-            const mapRes = await fetch('/api/landmarks');
-            const mapData = await mapRes.json();
-            
-            // Clear old map points and add new ones
             markers.clearLayers();
-            mapData.forEach(landmark => {
-                const marker = L.marker([landmark.lat, landmark.lng]);
-                marker.bindPopup(
-                    `<b>IP:</b> ${landmark.ip}<br>` +
-                    `<b>City:</b> ${landmark.city || 'Unknown'}<br>` +
-                    `<b>Last Updated:</b> ${new Date(landmark.updated).toLocaleString()}`
-                );
-                markers.addLayer(marker);
-            });
+            clusterLayer.clearLayers();
+            newClusters.forEach(marker => clusterLayer.addLayer(marker));
+        } catch (error) {
+            console.error("Error updating map clusters:", error);
+        }
+    }
+
+    async function updatePoints() {
+        const request = ++mapRequest;
+        const query = viewportQuery();
+        const newMarkers = [];
+        let cursor = null;
+        try {
+            do {
+                const url = `/api/landmarks?${query}` + (cursor ? `&cursor=${encodeURIComponent(cursor)}` : '');
+                const page = await (await fetch(url)).json();
+                if (request !== mapRequest) return; // the map moved again meanwhile
+
+                page.landmarks.forEach(landmark => {
+                    const marker = L.marker([landmark.lat, landmark.lng]);
+                    marker.bindPopup(
+                        `<b>IP:</b> ${landmark.ip}<br>` +
+                        `<b>City:</b> ${landmark.city || 'Unknown'}<br>` +
+                        `<b>Last Updated:</b> ${landmark.updated ? new Date(landmark.updated).toLocaleString() : 'Unknown'}`
+                    );
+                    newMarkers.push(marker);
+                });
+                cursor = page.next;
+            } while (cursor && newMarkers.length < MAX_MAP_POINTS);
 
+            // Clear old map points and add new ones
+            clusterLayer.clearLayers();
+            markers.clearLayers();
+            markers.addLayers(newMarkers);
         } catch (error) {
-            console.error("Error updating dashboard:", error);
+            console.error("Error updating map:", error);
         }
     }
 
-    // --- 4. Run the Dashboard ---
+    map.on('moveend', updateMap);
+
+    // --- 5. Run the Dashboard ---
     
     // Update immediately on load
     updateDashboard();